@@ -0,0 +1,159 @@
+/*
+ * Benchmarks.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * JMH benchmarks for the reader, the compilers, the SECD machine, and the writer.
+ *
+ * The VM benchmarks are small Lisp functions compiled when a trial starts.
+ * Each one stresses one kind of code: LD of a variable in the current frame or
+ * five frames out, AP and RTN of a call that isn't a tail call, an arithmetic
+ * loop, and building a list with CONS. Each one is run by the interpreter with
+ * the Jit turned off, jit = false, and with the Jit at its default threshold,
+ * jit = true.
+ *
+ * Build with the jmh profile, then run from the directory with compiler.secd
+ * and compiler.lisp. -prof gc adds the bytes allocated per operation,
+ * gc.alloc.rate.norm, and the garbage collections:
+ *   mvn -P jmh package
+ *   cd src && java -jar ../target/benchmarks.jar -prof gc [regexp]
+ * A regexp selects benchmarks, e.g. Vm runs the VM ones.
+ */
+package LispKit;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class Benchmarks {
+	private static final int LOOP_N = 10000;
+	private static final int CALL_N = 1000;
+
+	// the compiler as text, as binary, and loaded, and its own source to compile
+	@State( Scope.Benchmark )
+	public static class Compiler {
+		String text;
+		byte[] bytes;
+		SExp code;
+		Program program;
+		SExp args;
+		SECD secd;
+
+		@Setup
+		public void Setup() throws IOException {
+			Path cwd = Path.of( System.getProperty( "user.dir" ) );
+			text = Files.readString( cwd.resolve( Engine.COMPILER_FILE ), StandardCharsets.ISO_8859_1 );
+			String source = Files.readString( cwd.resolve( "compiler.lisp" ), StandardCharsets.ISO_8859_1 );
+			code = new SExpReader( text ).GetExp();
+			bytes = SExpBinaryWriter.ToBytes( code );
+			program = Loader.Load( code );
+			args = new Cons( new SExpReader( source ).GetExp(), SymbolAtom.NIL );
+			secd = new SECD();
+		}
+	}
+
+	// one of the VM functions, compiled, and the SECD to run it
+	@State( Scope.Benchmark )
+	public static class Vm {
+		@Param( { "ld.depth0", "ld.depth5", "call", "arith", "cons" } )
+		public String name;
+
+		@Param( { "false", "true" } )
+		public boolean jit;
+
+		Program program;
+		SExp args;
+		SECD secd;
+
+		@Setup
+		public void Setup() throws IOException {
+			String[] f = Function( name );
+			program = new Engine( 1 ).Compile( f[0] ).GetProgram();
+			args = new SExpReader( f[1] ).GetExp();
+			secd = new SECD();
+			secd.SetJitThreshold( jit ? SECD.JIT_THRESHOLD : 0 );
+		}
+	}
+
+	@Benchmark
+	public SExp ReadCompilerText( Compiler c ) throws IOException {
+		return new SExpReader( c.text ).GetExp();
+	}
+
+	@Benchmark
+	public SExp ReadCompilerBinary( Compiler c ) throws IOException {
+		return SExpBinaryReader.Read( c.bytes );
+	}
+
+	@Benchmark
+	public Program LoadCompiler( Compiler c ) {
+		return Loader.Load( c.code );
+	}
+
+	@Benchmark
+	public SExp CompileSelf( Compiler c ) throws IOException {
+		return c.secd.exec( c.program, c.args );
+	}
+
+	@Benchmark
+	public SExp CompileNative( Compiler c ) {
+		return NativeCompiler.Compile( c.args.car() );
+	}
+
+	@Benchmark
+	public SExpWriter WriteCompiler( Compiler c ) throws IOException {
+		SExpWriter w = new SExpWriter( Writer.nullWriter() );
+		w.PutSExp( c.code );
+		w.Flush();
+		return w;
+	}
+
+	@Benchmark
+	public SExp Vm( Vm v ) throws IOException {
+		return v.secd.exec( v.program, v.args );
+	}
+
+	// the function and arguments of the VM benchmark name
+	private static String[] Function( String name ) {
+		return switch( name ) {
+			// sum a variable in the loop's frame, or five frames out
+			case "ld.depth0" -> new String[] {
+				"( LAMBDA ( N K ) ( LETREC ( LOOP N ( QUOTE 0 ) K ) " +
+				"( LOOP LAMBDA ( I S K ) ( IF ( EQ I ( QUOTE 0 ) ) S ( LOOP ( SUB I ( QUOTE 1 ) ) ( ADD S K ) K ) ) ) ) )",
+				"( " + LOOP_N + " 3 )" };
+			case "ld.depth5" -> new String[] {
+				"( LAMBDA ( N K ) ( LET ( LET ( LET ( LETREC ( LOOP N ( QUOTE 0 ) ) " +
+				"( LOOP LAMBDA ( I S ) ( IF ( EQ I ( QUOTE 0 ) ) S ( LOOP ( SUB I ( QUOTE 1 ) ) ( ADD S K ) ) ) ) ) " +
+				"( C QUOTE 3 ) ) ( B QUOTE 2 ) ) ( A QUOTE 1 ) ) )",
+				"( " + LOOP_N + " 3 )" };
+
+			// calls that aren't tail calls, each one is an AP and a RTN
+			case "call" -> new String[] {
+				"( LAMBDA ( N ) ( LETREC ( COUNT N ) " +
+				"( COUNT LAMBDA ( I ) ( IF ( EQ I ( QUOTE 0 ) ) ( QUOTE 0 ) ( ADD ( QUOTE 1 ) ( COUNT ( SUB I ( QUOTE 1 ) ) ) ) ) ) ) )",
+				"( " + CALL_N + " )" };
+
+			case "arith" -> new String[] {
+				"( LAMBDA ( N ) ( LETREC ( LOOP N ( QUOTE 0 ) ) " +
+				"( LOOP LAMBDA ( I S ) ( IF ( EQ I ( QUOTE 0 ) ) S " +
+				"( LOOP ( SUB I ( QUOTE 1 ) ) ( REM ( ADD ( MUL S ( QUOTE 31 ) ) ( DIV I ( QUOTE 3 ) ) ) ( QUOTE 1000003 ) ) ) ) ) ) )",
+				"( " + LOOP_N + " )" };
+
+			case "cons" -> new String[] {
+				"( LAMBDA ( N ) ( LETREC ( BUILD N ( QUOTE NIL ) ) " +
+				"( BUILD LAMBDA ( I L ) ( IF ( EQ I ( QUOTE 0 ) ) L ( BUILD ( SUB I ( QUOTE 1 ) ) ( CONS I L ) ) ) ) ) )",
+				"( " + LOOP_N + " )" };
+
+			default -> throw new IllegalArgumentException( "no VM benchmark " + name );
+		};
+	}
+}
@@ -0,0 +1,24 @@
+/*
+ * CancelToken.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * A flag another thread can set to stop a running SECD.
+ * Pass it in Limits. The SECD looks at it every few thousand instructions and
+ * throws a LimitExceededException if it has been cancelled.
+ */
+package LispKit;
+
+public class CancelToken {
+	private volatile boolean cancelled = false;
+
+	public void Cancel() {
+		cancelled = true;
+	}
+
+	public boolean IsCancelled() {
+		return cancelled;
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Closure.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * A closure made by LDF when running a Program.
+ *
+ * It keeps the offset of the body in the Program and the environment Frame,
+ * so AP and RAP don't have to look them up.
+ * It still looks like a cons of the body and the environment, as in Henderson's
+ * book. The environment is only turned into a list if cdr is called.
+ */
+package LispKit;
+
+public class Closure extends Cons {
+	private final int _pc;
+	private final Frame _frame;
+
+	public Closure( SExp body, Frame frame, int pc ) {
+		super( body, null );
+		_frame = frame;
+		_pc = pc;
+	}
+
+	public int GetPc() {
+		return _pc;
+	}
+
+	public Frame GetFrame() {
+		return _frame;
+	}
+
+	@Override
+	public SExp cdr() {
+		return Frame.ToList( _frame );
+	}
+}
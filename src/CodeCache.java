@@ -0,0 +1,143 @@
+/*
+ * CodeCache.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * An on-disk cache of compiled SECD code.
+ *
+ * Compiled code is stored in a file named by a SHA-256 hash of the compiler
+ * and the source expression, so a change to either one misses the cache.
+ * The code is written with SExpBinaryWriter.
+ * A hit updates the file's modified time. When the files in the cache take
+ * more than maxBytes, the least recently used are deleted.
+ *
+ * Errors reading or writing the cache are treated as misses. The cache can be
+ * shared by processes running at the same time, files are written to a temp
+ * file and renamed.
+ */
+package LispKit;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.*;
+import java.util.*;
+
+public class CodeCache {
+	private static final String SUFFIX = ".secdb";
+
+	private final Path dir;
+	private final long maxBytes;
+	private final String compilerVersion;
+
+	// compilerVersion identifies the compiler, e.g. a hash of compiler.secd
+	public CodeCache( Path dir, long maxBytes, String compilerVersion ) {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		this.compilerVersion = compilerVersion;
+	}
+
+	// the compiled code for source, or null if it isn't in the cache
+	public SExp Get( SExp source ) {
+		Path p = dir.resolve( Key( source ) + SUFFIX );
+		if( ! Files.exists( p ) )
+			return null;
+
+		try {
+			SExp code = SExpBinaryReader.ReadFile( p );
+			Files.setLastModifiedTime( p, FileTime.fromMillis( System.currentTimeMillis() ) );
+			return code;
+		}
+		catch( IOException | RuntimeException e ) {
+			try {
+				Files.deleteIfExists( p );
+			}
+			catch( IOException e2 ) {
+				// leave it
+			}
+			return null;
+		}
+	}
+
+	public void Put( SExp source, SExp code ) {
+		Path tmp = null;
+		try {
+			Files.createDirectories( dir );
+			tmp = Files.createTempFile( dir, "tmp", null );
+			Files.write( tmp, SExpBinaryWriter.ToBytes( code ) );
+			Files.move( tmp, dir.resolve( Key( source ) + SUFFIX ),
+			            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+			tmp = null;
+			Evict();
+		}
+		catch( IOException e ) {
+			// not cached
+		}
+		finally {
+			if( tmp != null ) {
+				try {
+					Files.deleteIfExists( tmp );
+				}
+				catch( IOException e ) {
+					// leave it
+				}
+			}
+		}
+	}
+
+	// a hash of some bytes, as hex
+	public static String Hash( byte[] bytes ) {
+		try {
+			MessageDigest md = MessageDigest.getInstance( "SHA-256" );
+			return HexFormat.of().formatHex( md.digest( bytes ) );
+		}
+		catch( NoSuchAlgorithmException e ) {
+			throw new IllegalStateException( e );
+		}
+	}
+
+	private String Key( SExp source ) {
+		String s = compilerVersion + "\n" + Text( source );
+		return Hash( s.getBytes( StandardCharsets.UTF_8 ) );
+	}
+
+	// delete the least recently used files until the cache fits in maxBytes
+	private void Evict() throws IOException {
+		List<Path> files = new ArrayList<>();
+		long total = 0;
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream( dir, "*" + SUFFIX )) {
+			for( Path p : ds ) {
+				files.add( p );
+				total += Files.size( p );
+			}
+		}
+		if( total <= maxBytes )
+			return;
+
+		files.sort( Comparator.comparing( p -> p.toFile().lastModified() ) );
+		for( Path p : files ) {
+			if( total <= maxBytes )
+				break;
+			long size = Files.size( p );
+			if( Files.deleteIfExists( p ) )
+				total -= size;
+		}
+	}
+
+	// an S expression as text that SExpReader can read back
+	private static String Text( SExp s ) {
+		StringWriter sw = new StringWriter();
+		try {
+			SExpWriter w = new SExpWriter( sw, 0, false );
+			w.PutSExp( s );
+			w.Flush();
+		}
+		catch( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+		return sw.toString();
+	}
+}
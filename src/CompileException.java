@@ -0,0 +1,26 @@
+/*
+ * CompileException.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * An error in the source of a Lisp function, found by the NativeCompiler.
+ * The position is null if the reader didn't keep positions.
+ */
+package LispKit;
+
+public class CompileException extends IllegalArgumentException {
+	private static final long serialVersionUID = 1L;
+
+	private final SExpReader.Position position;
+
+	public CompileException( String msg, SExpReader.Position position ) {
+		super( position == null ? msg : msg + " at " + position );
+		this.position = position;
+	}
+
+	public SExpReader.Position GetPosition() {
+		return position;
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * CompiledFunction.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * A Lisp function compiled and loaded by an Engine.
+ * It holds the SECD code from the compiler and the Program made from it.
+ * Neither is changed after it is made, so a CompiledFunction can be invoked
+ * any number of times, from any thread.
+ */
+package LispKit;
+
+public final class CompiledFunction {
+	private final SExp _source;
+	private final SExp _code;
+	private final Program _program;
+
+	CompiledFunction( SExp source, SExp code, Program program ) {
+		_source = source;
+		_code = code;
+		_program = program;
+	}
+
+	// the Lisp source
+	public SExp GetSource() {
+		return _source;
+	}
+
+	// the SECD code from the compiler
+	public SExp GetCode() {
+		return _code;
+	}
+
+	public Program GetProgram() {
+		return _program;
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * ConsTable.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * Hash consing: makes one SharedCons for each car and cdr.
+ *
+ * Make looks up the pair and returns the cell already made for it, if there is
+ * one. Intern does the same for a whole list, from the leaves up. Lists built
+ * only by a ConsTable share all of their equal parts, so a program that builds
+ * a lot of repeated structure keeps one copy of it. Two such lists are equal
+ * if they are the same cell, and EQ is true for them, see SECD.Eq.
+ *
+ * Cars and cdrs are compared by identity, numbers by value. A cell with a
+ * plain Cons or a Closure in it is only shared with cells holding the same
+ * object. Closures and the frames DUM makes for RAP are never hash consed.
+ *
+ * The table holds its cells weakly. A cell no list uses any more is
+ * collected, and its entry is removed the next time the table is used.
+ * A ConsTable can be shared by threads.
+ */
+package LispKit;
+
+import java.lang.ref.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ConsTable {
+	// each cell's Ref is its own key, so the table doesn't keep a cell's car or cdr alive
+	private final ConcurrentHashMap<Ref, Ref> table = new ConcurrentHashMap<>();
+	private final ReferenceQueue<SharedCons> collected = new ReferenceQueue<>();
+
+	// equal to another Ref to a cell with the same car and cdr, while the cells are alive
+	private static final class Ref extends WeakReference<SharedCons> {
+		final int hash;
+
+		Ref( SharedCons cell, ReferenceQueue<SharedCons> q ) {
+			super( cell, q );
+			hash = cell.GetHash();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals( Object o ) {
+			if( this == o )
+				return true;
+			if( ! (o instanceof Ref) || hash != ((Ref) o).hash )
+				return false;
+			SharedCons a = get();
+			SharedCons b = ((Ref) o).get();
+			return a != null && b != null && Same( a.car(), b.car() ) && Same( a.cdr(), b.cdr() );
+		}
+	}
+
+	// the cell for ( car . cdr )
+	public SharedCons Make( SExp car, SExp cdr ) {
+		Expunge();
+		SharedCons made = new SharedCons( car, cdr, 31 * Hash( car ) + Hash( cdr ) );
+		Ref mr = new Ref( made, collected );
+		while( true ) {
+			Ref r = table.putIfAbsent( mr, mr );
+			if( r == null )
+				return made;
+			SharedCons cell = r.get();
+			if( cell != null )
+				return cell;
+			table.remove( r, r );     // collected, but not expunged yet
+		}
+	}
+
+	// x with every plain cons in it replaced by a shared one
+	public SExp Intern( SExp x ) {
+		List<SExp> cars = new ArrayList<>();
+		while( IsPlain( x ) ) {
+			cars.add( Intern( x.car() ) );
+			x = x.cdr();
+		}
+		for( int i = cars.size() - 1; i >= 0; i-- )
+			x = Make( cars.get( i ), x );
+		return x;
+	}
+
+	// the number of cells in the table, some may have been collected
+	public int Size() {
+		Expunge();
+		return table.size();
+	}
+
+	private void Expunge() {
+		Reference<? extends SharedCons> r;
+		while( (r = collected.poll()) != null )
+			table.remove( r, r );
+	}
+
+	private static boolean IsPlain( SExp x ) {
+		return x.isCons() && ! (x instanceof SharedCons) && ! (x instanceof Closure);
+	}
+
+	private static int Hash( SExp x ) {
+		if( x instanceof SharedCons )
+			return ((SharedCons) x).GetHash();
+		if( x.isNumber() )
+			return ((NumberAtom) x).GetInt();
+		return System.identityHashCode( x );
+	}
+
+	private static boolean Same( SExp a, SExp b ) {
+		if( a == b )
+			return true;
+		return a.isNumber() && b.isNumber() && ((NumberAtom) a).GetInt() == ((NumberAtom) b).GetInt();
+	}
+}
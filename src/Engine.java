@@ -0,0 +1,219 @@
+/*
+ * Engine.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * An interface for running LispKit from other Java code.
+ *
+ * Compile turns a Lisp function into a CompiledFunction and Invoke applies it
+ * to a list of arguments. Nothing is read from the terminal or written to it.
+ *
+ * By default functions are compiled by the NativeCompiler. An Engine can be
+ * made to use compiler.secd instead, on the SECD machine. That compiler is only
+ * read and loaded the first time a function isn't found in the code cache, and
+ * then kept. The native compiler doesn't use the cache, it takes less time
+ * than reading a cached file. An Engine keeps a pool of SECD machines,
+ * so their stacks are already grown when a call starts. A call takes a machine
+ * from the pool, or makes one if the pool is empty, and gives it back when it
+ * is done. An Engine can be used from many threads at the same time.
+ *
+ *   Engine engine = new Engine();
+ *   CompiledFunction fact = engine.Compile( "(LAMBDA (N) ...)" );
+ *   SExp result = engine.Invoke( fact, "(10)" );
+ */
+package LispKit;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class Engine {
+	// compiler.secd is a compiled Lisp compiler for SECD from Henderson's book
+	// the compiler.secd file is from https://github.com/carld/lispkit
+	static final String COMPILER_FILE = "compiler.secd";
+
+	// the compiler written by SExpBinaryWriter. It is used instead of compiler.secd if it exists.
+	static final String BINARY_COMPILER_FILE = "compiler.secdb";
+
+	// compiled functions are cached in ~/.lispkit/cache
+	// -Dlispkit.cache=<dir> uses another directory, -Dlispkit.cache=none turns the cache off
+	static final String CACHE_DIR = ".lispkit/cache";
+	static final long CACHE_BYTES = 64L * 1024 * 1024;
+
+	private final byte[] compilerText;    // null for the native compiler
+	private final boolean isBinary;
+	private final CodeCache cache;
+	private volatile Program compiler = null;
+	private volatile ConsTable conses = null;
+	private volatile ForkJoinPool par = null;
+
+	// idle machines
+	private final BlockingQueue<SECD> vms;
+
+	/**
+	 * An engine using the native compiler, with a machine for each processor.
+	 */
+	public Engine() {
+		this( Runtime.getRuntime().availableProcessors() );
+	}
+
+	public Engine( int poolSize ) {
+		compilerText = null;
+		isBinary = false;
+		cache = null;
+		vms = MakePool( poolSize );
+	}
+
+	/**
+	 * compilerFile is compiler.secd, or a .secdb file from SExpBinaryWriter.
+	 * cacheDir is null for no cache.
+	 * poolSize machines are made now, and at most that many are kept when idle.
+	 */
+	public Engine( Path compilerFile, Path cacheDir, int poolSize ) throws IOException {
+		compilerText = Files.readAllBytes( compilerFile );
+		isBinary = compilerFile.toString().endsWith( ".secdb" );
+		cache = cacheDir == null ? null : new CodeCache( cacheDir, CACHE_BYTES, CodeCache.Hash( compilerText ) );
+
+		vms = MakePool( poolSize );
+	}
+
+	private static BlockingQueue<SECD> MakePool( int poolSize ) {
+		BlockingQueue<SECD> q = new ArrayBlockingQueue<>( Math.max( poolSize, 1 ) );
+		for( int i = 0; i < poolSize; i++ )
+			q.offer( new SECD() );
+		return q;
+	}
+
+	// compile and load a Lisp function
+	public CompiledFunction Compile( SExp fn ) throws IOException {
+		return Compile( fn, null );
+	}
+
+	// positions are from SExpReader.GetPositions, so a CompileException can say where the error is
+	public CompiledFunction Compile( SExp fn, Map<SExp, SExpReader.Position> positions ) throws IOException {
+		SExp code;
+		if( compilerText == null )
+			code = NativeCompiler.Compile( fn, positions );
+		else {
+			code = cache == null ? null : cache.Get( fn );
+			if( code == null ) {
+				code = Run( GetCompiler(), new Cons( fn, SymbolAtom.NIL ) );
+				if( cache != null )
+					cache.Put( fn, code );
+			}
+		}
+		return new CompiledFunction( fn, code, Loader.Load( code ) );
+	}
+
+	public CompiledFunction Compile( String fn ) throws IOException {
+		SExpReader r = new SExpReader( fn );
+		r.KeepPositions();
+		return Compile( r.GetExp(), r.GetPositions() );
+	}
+
+	// apply fn to a list of arguments
+	public SExp Invoke( CompiledFunction fn, SExp args ) throws IOException {
+		return Run( fn.GetProgram(), args );
+	}
+
+	public SExp Invoke( CompiledFunction fn, String args ) throws IOException {
+		return Invoke( fn, new SExpReader( args ).GetExp() );
+	}
+
+	// apply fn, counting what it does in prof
+	public SExp Invoke( CompiledFunction fn, SExp args, Profiler prof ) throws IOException {
+		return Run( fn.GetProgram(), args, prof, null, null );
+	}
+
+	// apply fn within limits, a LimitExceededException is thrown if it goes past them
+	public SExp Invoke( CompiledFunction fn, SExp args, Limits limits ) throws IOException {
+		return Run( fn.GetProgram(), args, null, limits, null );
+	}
+
+	// apply fn, with the results of the functions selected in memo kept there
+	public SExp Invoke( CompiledFunction fn, SExp args, MemoCache memo ) throws IOException {
+		return Run( fn.GetProgram(), args, null, null, memo );
+	}
+
+	// hash cons the lists functions make in t, null for plain cells
+	public void SetConsTable( ConsTable t ) {
+		conses = t;
+	}
+
+	public ConsTable GetConsTable() {
+		return conses;
+	}
+
+	// run the code of PAR forms on pool, null to run it when it is forced
+	public void SetForkJoinPool( ForkJoinPool pool ) {
+		par = pool;
+	}
+
+	public ForkJoinPool GetForkJoinPool() {
+		return par;
+	}
+
+	private SExp Run( Program p, SExp args ) throws IOException {
+		return Run( p, args, null, null, null );
+	}
+
+	private SExp Run( Program p, SExp args, Profiler prof, Limits limits, MemoCache memo ) throws IOException {
+		SECD secd = vms.poll();
+		if( secd == null )
+			secd = new SECD();
+		secd.SetProfiler( prof );
+		secd.SetLimits( limits );
+		secd.SetMemoCache( memo );
+		secd.SetConsTable( conses );
+		secd.SetForkJoinPool( par );
+		try {
+			return secd.exec( p, args );
+		}
+		finally {
+			secd.SetProfiler( null );
+			secd.SetLimits( null );
+			secd.SetMemoCache( null );
+			vms.offer( secd );
+		}
+	}
+
+	// read and load the compiler the first time it is needed
+	private Program GetCompiler() throws IOException {
+		Program p = compiler;
+		if( p == null ) {
+			synchronized( this ) {
+				p = compiler;
+				if( p == null ) {
+					SExp code;
+					if( isBinary )
+						code = SExpBinaryReader.Read( compilerText );
+					else
+						code = new SExpReader( new String( compilerText, StandardCharsets.ISO_8859_1 ) ).GetExp();
+					p = Loader.Load( code );
+					compiler = p;
+				}
+			}
+		}
+		return p;
+	}
+
+	// compiler.secdb in the current directory if it exists, otherwise compiler.secd
+	static Path DefaultCompiler() {
+		Path cwd = Path.of( System.getProperty( "user.dir" ) );
+		Path bin = cwd.resolve( BINARY_COMPILER_FILE );
+		return Files.exists( bin ) ? bin : cwd.resolve( COMPILER_FILE );
+	}
+
+	static Path DefaultCacheDir() {
+		String dir = System.getProperty( "lispkit.cache" );
+		if( dir == null )
+			return Path.of( System.getProperty( "user.home" ), CACHE_DIR );
+		else if( dir.equals( "none" ) )
+			return null;
+		return Path.of( dir );
+	}
+}
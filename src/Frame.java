@@ -0,0 +1,84 @@
+/*
+ * Frame.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * An environment frame used when running a Program.
+ *
+ * In Henderson's book the environment is a list of frames and each frame is a
+ * list of values, so LD (i . j) takes i + j cdrs. Here a frame holds its values
+ * in an array and keeps a display, an array of itself and all of the frames
+ * around it. LD (i . j) is display[i].slots[j].
+ *
+ * DUM makes a frame with no values yet. RAP fills them in, after the closures
+ * that refer to the frame have been made.
+ */
+package LispKit;
+
+public class Frame {
+	private static final SExp[] EMPTY = new SExp[0];
+
+	private SExp[] _slots;
+	private final Frame[] _display;   // _display[0] is this frame, _display[1] its parent, ...
+
+	public Frame( SExp[] slots, Frame parent ) {
+		_slots = slots;
+		if( parent == null ) {
+			_display = new Frame[] { this };
+		}
+		else {
+			Frame[] pd = parent._display;
+			_display = new Frame[pd.length + 1];
+			_display[0] = this;
+			System.arraycopy( pd, 0, _display, 1, pd.length );
+		}
+	}
+
+	// a frame for DUM
+	public Frame( Frame parent ) {
+		this( EMPTY, parent );
+	}
+
+	public SExp Get( int i, int j ) {
+		return _display[i]._slots[j];
+	}
+
+	public Frame GetParent() {
+		return _display.length > 1 ? _display[1] : null;
+	}
+
+	// for RAP
+	public void SetSlots( SExp[] slots ) {
+		_slots = slots;
+	}
+
+	// copy a list of arguments into an array
+	public static SExp[] FromList( SExp l ) {
+		int n = 0;
+		for( SExp x = l; x.isCons(); x = x.cdr() )
+			n++;
+		if( n == 0 )
+			return EMPTY;
+
+		SExp[] slots = new SExp[n];
+		SExp x = l;
+		for( int i = 0; i < n; i++ ) {
+			slots[i] = x.car();
+			x = x.cdr();
+		}
+		return slots;
+	}
+
+	// the environment as a list of lists, as in Henderson's book
+	public static SExp ToList( Frame env ) {
+		if( env == null )
+			return SymbolAtom.NIL;
+
+		SExp values = SymbolAtom.NIL;
+		for( int i = env._slots.length - 1; i >= 0; i-- )
+			values = new Cons( env._slots[i], values );
+		return new Cons( values, ToList( env.GetParent() ) );
+	}
+}
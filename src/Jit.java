@@ -0,0 +1,682 @@
+/*
+ * Jit.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * Compiles hot functions in a Program to trees of Java objects.
+ *
+ * The SECD counts the calls to each function, by the offset of its code. When
+ * a function has been called threshold times, its code is translated into a
+ * tree of Nodes, one per expression. The stack disappears: each instruction
+ * that pushes becomes a Node, and the instructions that pop become Nodes with
+ * those as children. Arithmetic and tests are done on Java ints and booleans,
+ * so numbers are only boxed when they are stored in a Frame or a list. The
+ * argument list of a call is evaluated straight into the array for the new
+ * Frame, without CONSing a list. HotSpot compiles the Eval methods of the tree
+ * like any other Java code.
+ *
+ * Calls from a compiled function to a compiled function are Java calls. Tail
+ * calls go back to a loop in Function.Invoke, so a tail recursive loop doesn't
+ * use the Java stack. A call to a function that isn't compiled is run by an SECD.
+ * Past MAX_DEPTH nested compiled calls, calls go to the SECD too, so deep
+ * recursion uses the SECD's stack instead of the Java stack.
+ *
+ * Code the translator doesn't handle, DUM and RAP for example, is left to the
+ * SECD. The function containing it is never compiled.
+ *
+ * With Limits set, each time a compiled function is entered, by a call or a
+ * tail call, the length of its code is charged to the call's Limits.Budget and
+ * the limits are checked when its countdown runs out. Every instruction in the
+ * body runs at most once per entry, so this is never less than what ran.
+ *
+ * The compiled functions are kept in the Program, so every thread running the
+ * Program uses them. Nodes don't change after they are made.
+ */
+package LispKit;
+
+import java.util.*;
+
+public class Jit {
+	// nested compiled calls before calls go to the SECD
+	static final int MAX_DEPTH = 200;
+
+	// returned by a tail call, the call is in the Context
+	private static final SExp TAIL = new Cons( SymbolAtom.NIL, SymbolAtom.NIL );
+
+	// a function that can't be compiled
+	private static final Object FAILED = new Object();
+
+	/**
+	 * The compiled functions and call counts for a Program, by code offset
+	 */
+	static class Table {
+		final Object[] code;
+		final int[] calls;
+
+		Table( int n ) {
+			code = new Object[n];
+			calls = new int[n];
+		}
+	}
+
+	/**
+	 * The state of compiled code running on one thread
+	 *
+	 * The SECDs run functions that aren't compiled, one for each level of
+	 * compiled code calling the SECD. Level 0 is the SECD that made the Context.
+	 */
+	static class Context {
+		final int threshold;
+		int depth = 0;
+		ConsTable conses;    // the SECD's, for CONS
+		Limits.Budget budget;    // the call's, null for no limits
+		Closure tailClosure;
+		SExp[] tailSlots;
+
+		private final List<SECD> levels = new ArrayList<>();
+		private int level = 0;
+
+		Context( SECD secd, int threshold ) {
+			this.threshold = threshold;
+			levels.add( secd );
+		}
+
+		// the compiled function at pc, or null if it isn't compiled or the stack is too deep
+		Function Compiled( Program p, int pc ) {
+			return depth < MAX_DEPTH ? Lookup( p, pc, threshold ) : null;
+		}
+
+		SExp Run( Function f, Frame env ) {
+			depth++;
+			try {
+				return f.Invoke( env, this );
+			}
+			finally {
+				depth--;
+			}
+		}
+
+		// run the function at pc on an SECD
+		SExp Interpret( Program p, int pc, Frame env ) {
+			level++;
+			try {
+				if( level == levels.size() )
+					levels.add( new SECD( this ) );
+				SECD secd = levels.get( level );
+				secd.SetConsTable( conses );
+				return secd.RunClosure( p, pc, env );
+			}
+			finally {
+				level--;
+			}
+		}
+	}
+
+	/**
+	 * A compiled function
+	 */
+	static final class Function {
+		final Program program;
+		final int pc;
+		final Node body;
+		final int steps;    // the instructions in its code
+
+		Function( Program program, int pc, Node body, int steps ) {
+			this.program = program;
+			this.pc = pc;
+			this.body = body;
+			this.steps = steps;
+		}
+
+		// run the body, and the bodies of the functions it tail calls
+		SExp Invoke( Frame env, Context ctx ) {
+			Function f = this;
+			while( true ) {
+				Limits.Budget b = ctx.budget;
+				if( b != null && (b.countdown -= f.steps) < 0 )
+					b.Check();
+				SExp r = f.body.Eval( env, ctx );
+				if( r != TAIL )
+					return r;
+
+				Closure cl = ctx.tailClosure;
+				ctx.tailClosure = null;
+				env = new Frame( ctx.tailSlots, cl.GetFrame() );
+				f = Lookup( program, cl.GetPc(), ctx.threshold );
+				if( f == null )
+					return ctx.Interpret( program, cl.GetPc(), env );
+			}
+		}
+	}
+
+	// count a call of the function at pc, and compile it when it gets hot
+	static Function Lookup( Program p, int pc, int threshold ) {
+		Table t = p.GetJitTable();
+		Object f = t.code[pc];
+		if( f instanceof Function )
+			return (Function) f;
+		if( f == FAILED || ++t.calls[pc] < threshold )
+			return null;
+
+		Function fn = Compile( p, pc );
+		t.code[pc] = fn == null ? FAILED : fn;
+		return fn;
+	}
+
+	// a call from compiled code
+	static SExp Call( Program p, Closure cl, SExp[] slots, Context ctx ) {
+		Frame env = new Frame( slots, cl.GetFrame() );
+		Function f = ctx.Compiled( p, cl.GetPc() );
+		if( f == null )
+			return ctx.Interpret( p, cl.GetPc(), env );
+		return ctx.Run( f, env );
+	}
+
+	// compile the function at pc, or null if it has code that isn't handled
+	static Function Compile( Program p, int pc ) {
+		try {
+			Translator t = new Translator( p );
+			Block b = t.Translate( pc, -1 );
+			if( ! b.returns )
+				return null;
+			return new Function( p, pc, b.node, t.ops );
+		}
+		catch( Unsupported e ) {
+			return null;
+		}
+	}
+
+	private static class Unsupported extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Unsupported() {
+			super( null, null, false, false );
+		}
+	}
+
+	// the code from a pc to where it ends
+	private static class Block {
+		final Node node;
+		final boolean returns;   // the node's value is the function's result
+		final int next;          // otherwise, where the code goes on
+
+		Block( Node node, boolean returns, int next ) {
+			this.node = node;
+			this.returns = returns;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * Turns the code of a function into Nodes by running it with a stack of Nodes
+	 * instead of values.
+	 *
+	 * A SEL's then part ends with JOIN to the code after the SEL, its else part
+	 * falls through to it. If the then part ends with RTN or TAP, the SEL is in
+	 * tail position and both parts end the function.
+	 */
+	private static class Translator {
+		private final Program p;
+		private final int[] code;
+		private final SExp[] constants;
+		int ops = 0;    // instructions translated
+
+		Translator( Program p ) {
+			this.p = p;
+			code = p.GetCode();
+			constants = p.GetConstants();
+		}
+
+		// translate from pc until RTN, TAP, a JOIN, or stop
+		Block Translate( int pc, int stop ) {
+			Deque<Node> s = new ArrayDeque<>();
+			while( true ) {
+				if( pc == stop )
+					return new Block( Result( s ), false, stop );
+
+				int op = code[pc];
+				ops++;
+				switch( op ) {
+					case Program.LD ->
+						s.push( new Var( code[pc + 1], code[pc + 2] ) );
+
+					case Program.LDC ->
+						s.push( Constant( code[pc + 1] ) );
+
+					case Program.LDF ->
+						s.push( new MakeClosure( code[pc + 1], constants[code[pc + 2]] ) );
+
+					case Program.CAR ->
+						s.push( new Car( Pop( s ) ) );
+
+					case Program.CDR ->
+						s.push( new Cdr( Pop( s ) ) );
+
+					case Program.ATOM ->
+						s.push( new Atom( Pop( s ) ) );
+
+					case Program.CONS -> {
+						Node a = Pop( s );
+						s.push( new MakeCons( a, Pop( s ) ) );
+					}
+
+					case Program.EQ -> {
+						Node b = Pop( s );
+						s.push( new Eq( Pop( s ), b ) );
+					}
+
+					case Program.LEQ -> {
+						Node b = Pop( s );
+						s.push( new Leq( Pop( s ), b ) );
+					}
+
+					case Program.ADD, Program.SUB, Program.MUL, Program.DIV, Program.REM -> {
+						Node b = Pop( s );
+						s.push( new Arith( op, Pop( s ), b ) );
+					}
+
+					case Program.LDCAR ->
+						s.push( new Car( new Var( code[pc + 1], code[pc + 2] ) ) );
+
+					case Program.LDCDR ->
+						s.push( new Cdr( new Var( code[pc + 1], code[pc + 2] ) ) );
+
+					case Program.LDCONS ->
+						s.push( new MakeCons( new Var( code[pc + 1], code[pc + 2] ), Pop( s ) ) );
+
+					case Program.LDCEQ ->
+						s.push( new Eq( Pop( s ), Constant( code[pc + 1] ) ) );
+
+					case Program.AP -> {
+						Node fn = Pop( s );
+						s.push( new Call( p, fn, Args( Pop( s ) ), false ) );
+					}
+
+					case Program.TAP -> {
+						Node fn = Pop( s );
+						Node call = new Call( p, fn, Args( Pop( s ) ), true );
+						if( ! s.isEmpty() )
+							throw new Unsupported();
+						return new Block( call, true, -1 );
+					}
+
+					case Program.RTN -> {
+						return new Block( Result( s ), true, -1 );
+					}
+
+					case Program.JOIN -> {
+						int x = code[pc + 1];
+						while( code[x] == Program.JOIN )
+							x = code[x + 1];
+						return new Block( Result( s ), code[x] == Program.RTN, code[pc + 1] );
+					}
+
+					case Program.SEL, Program.EQSEL, Program.LDCEQSEL -> {
+						Node test;
+						int thenPc;
+						int elsePc;
+						if( op == Program.SEL ) {
+							test = Pop( s );
+							thenPc = pc + 2;
+							elsePc = code[pc + 1];
+						}
+						else if( op == Program.EQSEL ) {
+							Node b = Pop( s );
+							test = new Eq( Pop( s ), b );
+							thenPc = pc + 2;
+							elsePc = code[pc + 1];
+						}
+						else {
+							test = new Eq( Pop( s ), Constant( code[pc + 1] ) );
+							thenPc = pc + 3;
+							elsePc = code[pc + 2];
+						}
+
+						Block thenPt = Translate( thenPc, elsePc );
+						if( thenPt.returns ) {
+							Block elsePt = Translate( elsePc, -1 );
+							if( ! elsePt.returns || ! s.isEmpty() )
+								throw new Unsupported();
+							return new Block( new If( test, thenPt.node, elsePt.node ), true, -1 );
+						}
+
+						if( thenPt.next == elsePc )
+							throw new Unsupported();
+						Block elsePt = Translate( elsePc, thenPt.next );
+						if( elsePt.returns || elsePt.next != thenPt.next )
+							throw new Unsupported();
+						s.push( new If( test, thenPt.node, elsePt.node ) );
+						pc = thenPt.next;
+						continue;
+					}
+
+					default ->
+						throw new Unsupported();
+				}
+				pc += 1 + Program.OperandCount( op );
+			}
+		}
+
+		private Node Constant( int k ) {
+			return constants[k].isCons() ? new ListConst( p, k ) : new Const( constants[k] );
+		}
+
+		private static Node Pop( Deque<Node> s ) {
+			if( s.isEmpty() )
+				throw new Unsupported();
+			return s.pop();
+		}
+
+		private static Node Result( Deque<Node> s ) {
+			if( s.size() != 1 )
+				throw new Unsupported();
+			return s.pop();
+		}
+
+		// the argument list of a call, as an array of Nodes if it's a list made by CONS
+		private static Args Args( Node l ) {
+			List<Node> elems = new ArrayList<>();
+			Node x = l;
+			while( x instanceof MakeCons ) {
+				elems.add( ((MakeCons) x).a );
+				x = ((MakeCons) x).b;
+			}
+			if( x instanceof Const && ((Const) x).k.isNIL() )
+				return new Args( elems.toArray( new Node[0] ), null );
+			return new Args( null, l );
+		}
+	}
+
+	/**
+	 * An expression in a compiled function
+	 *
+	 * Children are evaluated in the order the SECD code pushes them.
+	 */
+	abstract static class Node {
+		abstract SExp Eval( Frame env, Context ctx );
+
+		int EvalInt( Frame env, Context ctx ) {
+			return ((NumberAtom) Eval( env, ctx )).GetInt();
+		}
+
+		// true if the value is T, as SEL tests it
+		boolean Test( Frame env, Context ctx ) {
+			return Eval( env, ctx ) == SymbolAtom.T;
+		}
+
+		// true if the value is always a number
+		boolean IsInt() {
+			return false;
+		}
+	}
+
+	private static final class Const extends Node {
+		final SExp k;
+		final int n;
+
+		Const( SExp k ) {
+			this.k = k;
+			n = k.isNumber() ? ((NumberAtom) k).GetInt() : 0;
+		}
+
+		SExp Eval( Frame env, Context ctx ) {
+			return k;
+		}
+
+		int EvalInt( Frame env, Context ctx ) {
+			return k.isNumber() ? n : super.EvalInt( env, ctx );
+		}
+
+		boolean IsInt() {
+			return k.isNumber();
+		}
+	}
+
+	// a list, from the Program's constants for the SECD's ConsTable
+	private static final class ListConst extends Node {
+		final Program p;
+		final int k;
+
+		ListConst( Program p, int k ) {
+			this.p = p;
+			this.k = k;
+		}
+
+		SExp Eval( Frame env, Context ctx ) {
+			return ctx.conses == null ? p.GetConstants()[k] : p.GetConstants( ctx.conses )[k];
+		}
+	}
+
+	private static final class Var extends Node {
+		final int i;
+		final int j;
+
+		Var( int i, int j ) {
+			this.i = i;
+			this.j = j;
+		}
+
+		SExp Eval( Frame env, Context ctx ) {
+			return env.Get( i, j );
+		}
+	}
+
+	private static final class Car extends Node {
+		final Node x;
+
+		Car( Node x ) {
+			this.x = x;
+		}
+
+		SExp Eval( Frame env, Context ctx ) {
+			return ((Cons) x.Eval( env, ctx )).car();
+		}
+	}
+
+	private static final class Cdr extends Node {
+		final Node x;
+
+		Cdr( Node x ) {
+			this.x = x;
+		}
+
+		SExp Eval( Frame env, Context ctx ) {
+			return ((Cons) x.Eval( env, ctx )).cdr();
+		}
+	}
+
+	private static final class Atom extends Node {
+		final Node x;
+
+		Atom( Node x ) {
+			this.x = x;
+		}
+
+		SExp Eval( Frame env, Context ctx ) {
+			return Test( env, ctx ) ? SymbolAtom.T : SymbolAtom.F;
+		}
+
+		boolean Test( Frame env, Context ctx ) {
+			SExp v = x.Eval( env, ctx );
+			return v.isNumber() || v.isSymbol();
+		}
+	}
+
+	// ( a . b ), b is pushed first
+	private static final class MakeCons extends Node {
+		final Node a;
+		final Node b;
+
+		MakeCons( Node a, Node b ) {
+			this.a = a;
+			this.b = b;
+		}
+
+		SExp Eval( Frame env, Context ctx ) {
+			SExp bv = b.Eval( env, ctx );
+			return SECD.MakeCons( ctx.conses, a.Eval( env, ctx ), bv );
+		}
+	}
+
+	private static final class Eq extends Node {
+		final Node a;
+		final Node b;
+
+		Eq( Node a, Node b ) {
+			this.a = a;
+			this.b = b;
+		}
+
+		SExp Eval( Frame env, Context ctx ) {
+			return Test( env, ctx ) ? SymbolAtom.T : SymbolAtom.F;
+		}
+
+		boolean Test( Frame env, Context ctx ) {
+			if( a.IsInt() && b.IsInt() )
+				return a.EvalInt( env, ctx ) == b.EvalInt( env, ctx );
+			SExp av = a.Eval( env, ctx );
+			return SECD.Eq( av, b.Eval( env, ctx ) );
+		}
+	}
+
+	private static final class Leq extends Node {
+		final Node a;
+		final Node b;
+
+		Leq( Node a, Node b ) {
+			this.a = a;
+			this.b = b;
+		}
+
+		SExp Eval( Frame env, Context ctx ) {
+			return Test( env, ctx ) ? SymbolAtom.T : SymbolAtom.F;
+		}
+
+		boolean Test( Frame env, Context ctx ) {
+			int n = a.EvalInt( env, ctx );
+			return n <= b.EvalInt( env, ctx );
+		}
+	}
+
+	private static final class Arith extends Node {
+		final int op;
+		final Node a;
+		final Node b;
+
+		Arith( int op, Node a, Node b ) {
+			this.op = op;
+			this.a = a;
+			this.b = b;
+		}
+
+		SExp Eval( Frame env, Context ctx ) {
+			return NumberAtom.ValueOf( EvalInt( env, ctx ) );
+		}
+
+		int EvalInt( Frame env, Context ctx ) {
+			int n = a.EvalInt( env, ctx );
+			int n2 = b.EvalInt( env, ctx );
+			return switch( op ) {
+				case Program.ADD -> n + n2;
+				case Program.SUB -> n - n2;
+				case Program.MUL -> n * n2;
+				case Program.DIV -> n / n2;
+				default -> n % n2;
+			};
+		}
+
+		boolean IsInt() {
+			return true;
+		}
+	}
+
+	private static final class If extends Node {
+		final Node test;
+		final Node thenPt;
+		final Node elsePt;
+
+		If( Node test, Node thenPt, Node elsePt ) {
+			this.test = test;
+			this.thenPt = thenPt;
+			this.elsePt = elsePt;
+		}
+
+		SExp Eval( Frame env, Context ctx ) {
+			return test.Test( env, ctx ) ? thenPt.Eval( env, ctx ) : elsePt.Eval( env, ctx );
+		}
+
+		int EvalInt( Frame env, Context ctx ) {
+			return test.Test( env, ctx ) ? thenPt.EvalInt( env, ctx ) : elsePt.EvalInt( env, ctx );
+		}
+
+		boolean Test( Frame env, Context ctx ) {
+			return test.Test( env, ctx ) ? thenPt.Test( env, ctx ) : elsePt.Test( env, ctx );
+		}
+
+		boolean IsInt() {
+			return thenPt.IsInt() && elsePt.IsInt();
+		}
+	}
+
+	private static final class MakeClosure extends Node {
+		final int pc;
+		final SExp body;
+
+		MakeClosure( int pc, SExp body ) {
+			this.pc = pc;
+			this.body = body;
+		}
+
+		SExp Eval( Frame env, Context ctx ) {
+			return new Closure( body, env, pc );
+		}
+	}
+
+	// the arguments of a call, either Nodes for each one or a Node for the list
+	private static final class Args {
+		final Node[] elems;
+		final Node list;
+
+		Args( Node[] elems, Node list ) {
+			this.elems = elems;
+			this.list = list;
+		}
+
+		// the last argument is pushed first
+		SExp[] Eval( Frame env, Context ctx ) {
+			if( elems == null )
+				return Frame.FromList( list.Eval( env, ctx ) );
+			SExp[] slots = new SExp[elems.length];
+			for( int i = elems.length - 1; i >= 0; i-- )
+				slots[i] = elems[i].Eval( env, ctx );
+			return slots;
+		}
+	}
+
+	private static final class Call extends Node {
+		final Program p;
+		final Node fn;
+		final Args args;
+		final boolean tail;
+
+		Call( Program p, Node fn, Args args, boolean tail ) {
+			this.p = p;
+			this.fn = fn;
+			this.args = args;
+			this.tail = tail;
+		}
+
+		SExp Eval( Frame env, Context ctx ) {
+			SExp[] slots = args.Eval( env, ctx );
+			Closure cl = (Closure) fn.Eval( env, ctx );
+			if( tail ) {
+				ctx.tailClosure = cl;
+				ctx.tailSlots = slots;
+				return TAIL;
+			}
+			return Jit.Call( p, cl, slots, ctx );
+		}
+	}
+}
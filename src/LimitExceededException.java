@@ -0,0 +1,44 @@
+/*
+ * LimitExceededException.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * Thrown by SECD.exec when a call goes past its Limits, is cancelled, or its
+ * thread is interrupted. The interrupt flag is left set.
+ */
+package LispKit;
+
+public class LimitExceededException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public enum Reason { STEPS, TIMEOUT, CANCELLED, INTERRUPTED }
+
+	private final Reason reason;
+	private final long steps;
+
+	public LimitExceededException( Reason reason, long steps ) {
+		super( Message( reason ) + " after " + steps + " instructions" );
+		this.reason = reason;
+		this.steps = steps;
+	}
+
+	public Reason GetReason() {
+		return reason;
+	}
+
+	// instructions run before it stopped
+	public long GetSteps() {
+		return steps;
+	}
+
+	private static String Message( Reason r ) {
+		return switch( r ) {
+			case STEPS -> "step budget used up";
+			case TIMEOUT -> "deadline passed";
+			case CANCELLED -> "cancelled";
+			case INTERRUPTED -> "interrupted";
+		};
+	}
+}
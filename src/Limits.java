@@ -0,0 +1,107 @@
+/*
+ * Limits.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * Bounds on a call of SECD.exec.
+ *
+ * maxSteps is the most instructions a call can run, timeoutNanos the longest it
+ * can run, counted from the start of the call. 0 means no limit. A token lets
+ * another thread cancel the call. Interrupting the thread running the call
+ * stops it too.
+ *
+ * The limits are checked every CHECK_INTERVAL instructions, so a call can run a
+ * little past its timeout, but never past maxSteps. A function compiled by the
+ * Jit is charged the length of its code each time it is entered, which is at
+ * least what it runs, so with the Jit a call can stop a little before maxSteps.
+ *
+ * A Budget holds what a call has used. The SECD and compiled code running the
+ * call on one thread share it.
+ */
+package LispKit;
+
+import java.time.Duration;
+
+public class Limits {
+	static final int CHECK_INTERVAL = 4096;
+
+	private final long maxSteps;
+	private final long timeoutNanos;
+	private final CancelToken token;
+
+	public Limits( long maxSteps, long timeoutNanos, CancelToken token ) {
+		this.maxSteps = maxSteps;
+		this.timeoutNanos = timeoutNanos;
+		this.token = token;
+	}
+
+	public static Limits Steps( long maxSteps ) {
+		return new Limits( maxSteps, 0, null );
+	}
+
+	public static Limits Timeout( Duration d ) {
+		return new Limits( 0, d.toNanos(), null );
+	}
+
+	public static Limits Token( CancelToken token ) {
+		return new Limits( 0, 0, token );
+	}
+
+	public long GetMaxSteps() {
+		return maxSteps;
+	}
+
+	public long GetTimeoutNanos() {
+		return timeoutNanos;
+	}
+
+	public CancelToken GetToken() {
+		return token;
+	}
+
+	// the instructions and time used by one call
+	static final class Budget {
+		private final Limits limits;
+		private final long deadline;
+		private long stepsRun = 0;    // instructions run up to the start of the chunk
+		private int chunk;            // instructions between checks
+		int countdown;                // instructions that can run before the next check
+
+		Budget( Limits limits ) {
+			this.limits = limits;
+			deadline = limits.timeoutNanos > 0 ? System.nanoTime() + limits.timeoutNanos : 0;
+			chunk = NextChunk();
+			countdown = chunk;
+		}
+
+		// the countdown has run out. Throws if a limit is passed, otherwise
+		// starts the next chunk. The countdown is below 0 if more was charged.
+		void Check() {
+			stepsRun += chunk - countdown;
+
+			LimitExceededException.Reason r = null;
+			if( limits.maxSteps > 0 && stepsRun >= limits.maxSteps )
+				r = LimitExceededException.Reason.STEPS;
+			else if( deadline != 0 && System.nanoTime() - deadline >= 0 )
+				r = LimitExceededException.Reason.TIMEOUT;
+			else if( limits.token != null && limits.token.IsCancelled() )
+				r = LimitExceededException.Reason.CANCELLED;
+			else if( Thread.currentThread().isInterrupted() )
+				r = LimitExceededException.Reason.INTERRUPTED;
+			if( r != null )
+				throw new LimitExceededException( r, stepsRun );
+
+			chunk = NextChunk();
+			countdown = chunk;
+		}
+
+		private int NextChunk() {
+			long n = CHECK_INTERVAL;
+			if( limits.maxSteps > 0 )
+				n = Math.min( n, limits.maxSteps - stepsRun );
+			return (int) n;
+		}
+	}
+}
@@ -15,28 +15,83 @@
 package LispKit;
 
 import java.io.*;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
 
 public class LispKit {
 	/**
 	 * Main class for the Lispkit System
 	 */
 
-	// compiler.secd is a compiled Lisp compiler for SECD from Henderson's book
-	// the compiler.secd file is from https://github.com/carld/lispkit
-	private static final String COMPILER_FILE = "compiler.secd";
+	// records read ahead when a batch is run on more than one thread
+	private static final int BATCH_BLOCK = 4096;
 
+	// results kept for -Dlispkit.memo
+	private static final int MEMO_ENTRIES = 100000;
+
+	/**
+	 * Usage:
+	 *   LispKit [function-file [args-file]]
+	 *   LispKit -batch function-file args-file [result-file]
+	 *   LispKit -server port|socket-path [threads]
+	 *   LispKit -repl
+	 * 
+	 * With -batch, the function is compiled once and applied to each top level
+	 * expression in args-file. The results are written one per line.
+	 * -Dlispkit.threads=<n> runs the batch on n threads.
+	 * -Dlispkit.steps=<n> and -Dlispkit.timeout=<ms> limit each record, one
+	 * that goes past them is an ERROR.
+	 *
+	 * With -server, requests are answered on a local socket until the process
+	 * is killed, see Server. A number is a TCP port on the loopback address,
+	 * anything else the path of a Unix domain socket. The steps and timeout
+	 * limit each invocation. Each open connection holds one of the threads,
+	 * the number of processors unless given. -Dlispkit.idle=<seconds> closes a
+	 * connection after that long with no request, 0 never does.
+	 * -Dlispkit.functions=<n> keeps at most n functions from COMPILE.
+	 *
+	 * -repl reads definitions and expressions from the terminal and prints
+	 * their values, keeping the definitions, see Repl.
+	 *
+	 * Functions are compiled by the NativeCompiler. -Dlispkit.compiler=secd
+	 * compiles them with compiler.secd instead, using the code cache.
+	 *
+	 * -Dlispkit.profile=<file> profiles the function when it runs. The counts
+	 * are printed to stderr and folded stacks for a flame graph go to the file.
+	 *
+	 * -Dlispkit.memo=<pc,...> memoizes the functions whose code starts at those
+	 * offsets, the fn@pc names in a profile. The hits and misses go to stderr.
+	 *
+	 * -Dlispkit.hashcons=true hash conses the lists the function makes, see ConsTable.
+	 *
+	 * -Dlispkit.jit=<n> compiles a function to Java after n calls, 0 never does.
+	 * Compiled functions are bound by the steps and timeout too. Each call of
+	 * one counts as the length of its code, so a run can stop a little sooner.
+	 *
+	 * -Dlispkit.par=<n> runs the expressions in PAR forms on n threads, see Spark.
+	 */
 	public static void main(String[] args) throws FileNotFoundException, IOException {
-		String cwd = GetCwd();
-	
-		/**
-		 * Load the compiler
-		 * 
-		 * Compiler file should be in same directory Lispkit class is run from
-		 */
-		SExp comp;
-		try (FileInputStream f = new FileInputStream( cwd + COMPILER_FILE )) {
-			SExpReader compReader = new SExpReader( f );
-			comp = compReader.GetExp();
+		if( args.length > 0 && args[0].equals( "-batch" ) ) {
+			if( args.length < 3 ) {
+				System.err.println( "usage: LispKit -batch function-file args-file [result-file]" );
+				System.exit( 1 );
+			}
+			Batch( args[1], args[2], args.length > 3 ? args[3] : null );
+			return;
+		}
+		if( args.length > 0 && args[0].equals( "-repl" ) ) {
+			new Repl().Loop( new BufferedReader( new InputStreamReader( System.in ) ), new SExpWriter() );
+			return;
+		}
+		if( args.length > 0 && args[0].equals( "-server" ) ) {
+			if( args.length < 2 ) {
+				System.err.println( "usage: LispKit -server port|socket-path [threads]" );
+				System.exit( 1 );
+			}
+			Serve( args[1], args.length > 2 ? Integer.parseInt( args[2] ) : Runtime.getRuntime().availableProcessors() );
+			return;
 		}
 
 		/**
@@ -45,16 +100,22 @@ public class LispKit {
 		 * If an arg is passed on commandline, it contains the Lisp function,
 		 * otherwise read the function from the terminal.
 		 */
-		SExpReader s;
+		SExp fn;
+		Map<SExp, SExpReader.Position> positions;
 		if( args.length > 0 ) {
 			try (FileInputStream f2 = new FileInputStream( args[0] )) {
-				s = new SExpReader( f2 );
+				SExpReader r = new SExpReader( f2 );
+				r.KeepPositions();
+				fn = r.GetExp();
+				positions = r.GetPositions();
 			}
 		} 
 		else {
-			s = new SExpReader();
+			SExpReader r = new SExpReader();
+			r.KeepPositions();
+			fn = r.GetExp();
+			positions = r.GetPositions();
 		}
-		SExp fn = s.GetExp();
 
 		// display the function
 		SExpWriter w = new SExpWriter();
@@ -62,12 +123,11 @@ public class LispKit {
 		w.ForceLineOut(); 
 		
 		// compile the Lisp function
-		SECD secd = new SECD();
-		SExp fn2 = new Cons( fn, new SymbolAtom() );
-		SExp compFn = secd.exec( comp, fn2 );
+		Engine engine = MakeEngine();
+		CompiledFunction compFn = Compile( engine, fn, positions );
 
 		// print the compled function
-		w.PutSExp( compFn );
+		w.PutSExp( compFn.GetCode() );
 		w.ForceLineOut(); 
 
 		/**
@@ -77,40 +137,203 @@ public class LispKit {
 		 * otherwise read the arguments from the terminal.
 		 */
 		
-		SExpReader s2;
+		SExp fnArgs;
 		if( args.length > 1 ) {
 			try (FileInputStream f3 = new FileInputStream( args[1] )) {
-				s2 = new SExpReader( f3 );
+				fnArgs = new SExpReader( f3 ).GetExp();
 			}
 		} 
 		else {
-			s2 = new SExpReader();
+			fnArgs = new SExpReader().GetExp();
 		}
-		// SExp fnArgs = s2.GetExpList();
-		SExp fnArgs = s2.GetExp();
 	
 		// display the function arguments
 		w.PutSExp( fnArgs );
 		w.ForceLineOut(); 
 
 		// execute the function
-		secd = new SECD();
-		SExp result = secd.exec( compFn, fnArgs );
+		String profileFile = System.getProperty( "lispkit.profile" );
+		Profiler prof = profileFile == null ? null : new Profiler();
+		MemoCache memo = MakeMemo( compFn.GetProgram() );
+		SExp result = memo == null ? engine.Invoke( compFn, fnArgs, prof ) : engine.Invoke( compFn, fnArgs, memo );
 
 		// disply results
 		w.PutSExp( result );
 		w.ForceLineOut(); 		
+
+		if( prof != null ) {
+			Profile profile = prof.Snapshot();
+			System.err.print( profile );
+			try (Writer fw = new FileWriter( profileFile, StandardCharsets.UTF_8 )) {
+				profile.WriteFolded( fw );
+			}
+			profile.Emit();
+		}
+		if( memo != null )
+			System.err.print( memo );
+	}
+
+	// a MemoCache with the functions in -Dlispkit.memo selected, or null
+	private static MemoCache MakeMemo( Program p ) {
+		String fns = System.getProperty( "lispkit.memo" );
+		if( fns == null || fns.isBlank() )
+			return null;
+		MemoCache memo = new MemoCache( MEMO_ENTRIES );
+		for( String pc : fns.split( "," ) )
+			memo.Select( p, Integer.parseInt( pc.trim() ) );
+		return memo;
 	}
 	
-	private static String GetCwd() {
-		String cwd = System.getProperty( "user.dir" );
-		String dir;
-		
-		if( ! cwd.endsWith( "/" ) )
-			dir = cwd + "/";
+	/**
+	 * Apply a function to every argument list in a file
+	 * 
+	 * The function is compiled and loaded once, and the engine's SECD is used for
+	 * every record. A record that can't be read or fails writes ERROR in its place
+	 * and the reason goes to stderr, the rest of the records still run.
+	 *
+	 * With more than one thread, blocks of records are run by a ParallelExecutor
+	 * and the results are written in the order of the records.
+	 */
+	private static void Batch( String fnFile, String argsFile, String resultFile ) throws IOException {
+		CompiledFunction compFn;
+		Engine engine = MakeEngine();
+		try (FileInputStream f = new FileInputStream( fnFile )) {
+			SExpReader r = new SExpReader( f );
+			r.KeepPositions();
+			compFn = Compile( engine, r.GetExp(), r.GetPositions() );
+		}
+
+		OutputStream os = resultFile == null ? System.out : new FileOutputStream( resultFile );
+		SExpWriter w = new SExpWriter( new OutputStreamWriter( os, StandardCharsets.ISO_8859_1 ), 0, false );
+		long records = 0;
+		long errors = 0;
+		int threads = Integer.getInteger( "lispkit.threads", 1 );
+		Limits limits = MakeLimits();
+
+		if( threads > 1 ) {
+			try (FileInputStream f = new FileInputStream( argsFile );
+			     ParallelExecutor ex = new ParallelExecutor( threads )) {
+				ex.SetConsTable( engine.GetConsTable() );
+				Iterator<SExp> it = new SExpReader( f ).Expressions();
+				List<Future<SExp>> block = new ArrayList<>( BATCH_BLOCK );
+				while( it.hasNext() ) {
+					block.clear();
+					while( it.hasNext() && block.size() < BATCH_BLOCK ) {
+						try {
+							block.add( ex.Submit( compFn.GetProgram(), it.next(), limits ) );
+						}
+						catch( RuntimeException e ) {
+							// a record that can't be read is an error in its place
+							block.add( CompletableFuture.failedFuture( e ) );
+						}
+					}
+					for( Future<SExp> r : block ) {
+						records++;
+						try {
+							w.PutSExp( r.get() );
+						}
+						catch( ExecutionException e ) {
+							errors++;
+							w.PutToken( "ERROR" );
+							System.err.println( "record " + records + ": " + e.getCause() );
+						}
+						catch( InterruptedException e ) {
+							Thread.currentThread().interrupt();
+							throw new InterruptedIOException();
+						}
+						w.ForceLineOut();
+					}
+				}
+				System.err.println( ex.GetStats() );
+			}
+			finally {
+				w.Flush();
+				if( resultFile != null )
+					os.close();
+			}
+			System.err.println( records + " records, " + errors + " errors" );
+			return;
+		}
+
+		try (FileInputStream f = new FileInputStream( argsFile )) {
+			Iterator<SExp> it = new SExpReader( f ).Expressions();
+			while( it.hasNext() ) {
+				records++;
+				try {
+					w.PutSExp( engine.Invoke( compFn, it.next(), limits ) );
+				}
+				catch( RuntimeException | StackOverflowError e ) {
+					errors++;
+					w.PutToken( "ERROR" );
+					System.err.println( "record " + records + ": " + e );
+				}
+				w.ForceLineOut();
+			}
+		}
+		finally {
+			w.Flush();
+			if( resultFile != null )
+				os.close();
+		}
+
+		System.err.println( records + " records, " + errors + " errors" );
+	}
+
+	private static void Serve( String where, int threads ) throws IOException {
+		SocketAddress address = where.chars().allMatch( Character::isDigit ) ?
+			Server.Local( Integer.parseInt( where ) ) : Server.Unix( where );
+		Server server = new Server( MakeEngine( threads ), address, threads, MakeLimits() );
+		server.SetMaxFunctions( Integer.getInteger( "lispkit.functions", Server.MAX_FUNCTIONS ) );
+		server.SetIdleTimeout( Long.getLong( "lispkit.idle", Server.IDLE_MILLIS / 1000 ) * 1000 );
+		Runtime.getRuntime().addShutdownHook( new Thread( () -> {
+			try {
+				server.close();    // removes the socket file
+			}
+			catch( IOException e ) {
+				// exiting anyway
+			}
+		} ) );
+		System.err.println( "listening on " + server.GetAddress() );
+		server.Serve();
+	}
+
+	// -Dlispkit.steps and -Dlispkit.timeout, or null
+	private static Limits MakeLimits() {
+		long steps = Long.getLong( "lispkit.steps", 0 );
+		long timeout = Long.getLong( "lispkit.timeout", 0 );
+		if( steps > 0 || timeout > 0 )
+			return new Limits( steps, timeout * 1000000, null );
+		return null;
+	}
+
+	private static Engine MakeEngine() throws IOException {
+		return MakeEngine( 1 );
+	}
+
+	// an Engine keeping a machine for each of threads threads
+	private static Engine MakeEngine( int threads ) throws IOException {
+		Engine engine;
+		if( "secd".equals( System.getProperty( "lispkit.compiler" ) ) )
+			engine = new Engine( Engine.DefaultCompiler(), Engine.DefaultCacheDir(), threads );
 		else
-			dir = cwd;	
-		
-		return dir;
+			engine = new Engine( threads );
+		if( Boolean.getBoolean( "lispkit.hashcons" ) )
+			engine.SetConsTable( new ConsTable() );
+		int par = Integer.getInteger( "lispkit.par", 0 );
+		if( par > 0 )
+			engine.SetForkJoinPool( new ForkJoinPool( par ) );
+		return engine;
+	}
+
+	// compile fn, an error in it ends the program
+	private static CompiledFunction Compile( Engine engine, SExp fn, Map<SExp, SExpReader.Position> positions ) throws IOException {
+		try {
+			return engine.Compile( fn, positions );
+		}
+		catch( CompileException e ) {
+			System.err.println( "compile error: " + e.getMessage() );
+			System.exit( 1 );
+			return null;
+		}
 	}
 }
@@ -0,0 +1,289 @@
+/*
+ * Loader.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * Turns SECD code in list form, as read from compiler.secd or produced by
+ * the compiler, into a Program.
+ *
+ * Each code list is copied into the int array in order. The branches of a SEL
+ * are laid out right after it, the then part first. The JOIN at the end of the
+ * then part jumps past the else part. The JOIN at the end of the else part is
+ * dropped, so it falls through to the instruction after the SEL.
+ * The bodies of LDF, and the recipes of LDE and LDP, are laid out after the
+ * code that loads them. An LDP whose recipe makes no calls becomes LDE.
+ *
+ * After that, calls in tail position become TAP, and frequent sequences are
+ * fused into the superinstructions listed in Program.
+ */
+package LispKit;
+
+import java.util.*;
+
+public class Loader {
+	private int[] code = new int[256];
+	private int codeLen = 0;
+
+	private final List<SExp> constants = new ArrayList<>();
+	private final Map<SExp, Integer> constantIndex = new IdentityHashMap<>();
+
+	// LDF, LDE, and LDP bodies waiting to be laid out, and the offsets of bodies already laid out
+	private final Deque<SExp> bodies = new ArrayDeque<>();
+	private final Deque<Integer> bodyPatches = new ArrayDeque<>();
+	private final Map<SExp, Integer> bodyPc = new IdentityHashMap<>();
+
+	public static Program Load( SExp fn ) {
+		return Load( fn, true );
+	}
+
+	// fuse false leaves out the superinstructions
+	public static Program Load( SExp fn, boolean fuse ) {
+		Loader l = new Loader();
+		l.EmitAll( fn );
+		l.TailCalls( 0 );
+		if( fuse )
+			l.Fuse( 0 );
+
+		return new Program( Arrays.copyOf( l.code, l.codeLen ),
+		                    l.constants.toArray( new SExp[0] ), fn );
+	}
+
+	// a Program with c laid out after the code of base, for a Repl.
+	// base's code and constants are copied as they are, so closures made by
+	// running base are still right in the new Program. c starts at the length
+	// of base's code.
+	public static Program Extend( Program base, SExp c ) {
+		Loader l = new Loader();
+		int start = base.GetCode().length;
+		l.code = Arrays.copyOf( base.GetCode(), Math.max( start * 2, 256 ) );
+		l.codeLen = start;
+		l.constants.addAll( Arrays.asList( base.GetConstants() ) );
+		l.EmitAll( c );
+		l.TailCalls( start );
+		l.Fuse( start );
+
+		return new Program( Arrays.copyOf( l.code, l.codeLen ),
+		                    l.constants.toArray( new SExp[0] ), c );
+	}
+
+	// copy fn and then the bodies it loads
+	private void EmitAll( SExp fn ) {
+		EmitList( fn );
+
+		while( ! bodies.isEmpty() ) {
+			SExp body = bodies.removeFirst();
+			int patch = bodyPatches.removeFirst();
+			Integer pc = bodyPc.get( body );
+			if( pc == null ) {
+				pc = codeLen;
+				bodyPc.put( body, pc );
+				EmitList( body );
+			}
+			code[patch] = pc;
+			if( code[patch - 1] == Program.LDP && ! Calls( pc ) )
+				code[patch - 1] = Program.LDE;
+		}
+	}
+
+	// copy one code list.
+	// returns the offset of the operand of the JOIN ending the list, or -1 if
+	// the list ends with RTN, UPD or STOP.
+	private int EmitList( SExp c ) {
+		while( c.isCons() ) {
+			int op = GetInt( c.car() );
+			c = c.cdr();
+			switch( op ) {
+				case Program.LD -> {
+					SExp ij = c.car();    // (i . j)
+					Emit( op );
+					Emit( GetInt( ij.car() ) );
+					Emit( GetInt( ij.cdr() ) );
+					c = c.cdr();
+				}
+
+				case Program.LDC -> {
+					Emit( op );
+					Emit( Constant( c.car() ) );
+					c = c.cdr();
+				}
+
+				case Program.LDF -> {
+					Emit( op );
+					bodies.addLast( c.car() );
+					bodyPatches.addLast( codeLen );
+					Emit( 0 );
+					Emit( Constant( c.car() ) );
+					c = c.cdr();
+				}
+
+				case Program.LDE, Program.LDP -> {
+					Emit( op );
+					bodies.addLast( c.car() );
+					bodyPatches.addLast( codeLen );
+					Emit( 0 );
+					c = c.cdr();
+				}
+
+				case Program.SEL -> {
+					SExp thenPt = c.car();
+					SExp elsePt = c.cdr().car();
+					c = c.cdr().cdr();
+
+					Emit( op );
+					int elsePatch = codeLen;
+					Emit( 0 );
+					int thenJoin = EmitList( thenPt );
+					code[elsePatch] = codeLen;
+					int elseJoin = EmitList( elsePt );
+					if( elseJoin == codeLen - 1 )
+						codeLen -= 2;    // fall through
+					if( thenJoin >= 0 )
+						code[thenJoin] = codeLen;
+				}
+
+				case Program.JOIN -> {
+					Emit( op );
+					Emit( 0 );
+					return codeLen - 1;
+				}
+
+				case Program.RTN, Program.UPD, Program.STOP -> {
+					Emit( op );
+					return -1;
+				}
+
+				default -> {
+					if( op < Program.LD || op > Program.MAX_CODE_OP )
+						throw new IllegalArgumentException( "unknown SECD opcode: " + op );
+					Emit( op );
+				}
+			}
+		}
+
+		throw new IllegalArgumentException( "SECD code list does not end with RTN, JOIN, UPD or STOP" );
+	}
+
+	// true if the code list laid out at pc makes a call before it ends.
+	// A body laid out later isn't part of it.
+	private boolean Calls( int pc ) {
+		for( ; pc < codeLen; pc += 1 + Program.OperandCount( code[pc] ) ) {
+			switch( code[pc] ) {
+				case Program.AP, Program.TAP, Program.RAP, Program.AP0 -> {
+					return true;
+				}
+				default -> { }
+			}
+		}
+		return false;
+	}
+
+	// an AP whose continuation is RTN, directly or through JOINs, becomes TAP.
+	// SEL doesn't push anything on the dump in a Program, so a call at the end
+	// of an IF branch is a tail call too.
+	private void TailCalls( int start ) {
+		for( int pc = start; pc < codeLen; pc += 1 + Program.OperandCount( code[pc] ) ) {
+			if( code[pc] == Program.AP ) {
+				int next = pc + 1;
+				while( code[next] == Program.JOIN )
+					next = code[next + 1];
+				if( code[next] == Program.RTN )
+					code[pc] = Program.TAP;
+			}
+		}
+	}
+
+	// rewrite the code with superinstructions.
+	// a sequence isn't fused if one of its later instructions is a jump target.
+	// the targets of SEL, JOIN, LDF, LDE, and LDP are moved to the new offsets.
+	// The code before start is left alone.
+	private void Fuse( int start ) {
+		boolean[] target = new boolean[codeLen + 1];
+		for( int pc = start; pc < codeLen; pc += 1 + Program.OperandCount( code[pc] ) ) {
+			switch( code[pc] ) {
+				case Program.SEL, Program.JOIN, Program.LDF, Program.LDE, Program.LDP -> target[code[pc + 1]] = true;
+				default -> { }
+			}
+		}
+
+		int[] old = Arrays.copyOf( code, codeLen );
+		int[] newPc = new int[codeLen + 1];
+		codeLen = start;
+		int pc = start;
+		while( pc < old.length ) {
+			newPc[pc] = codeLen;
+			int op = old[pc];
+			int next = pc + 1 + Program.OperandCount( op );
+			int op2 = next < old.length && ! target[next] ? old[next] : 0;
+			int next2 = next + 1 + Program.OperandCount( op2 );
+			int op3 = op2 != 0 && next2 < old.length && ! target[next2] ? old[next2] : 0;
+
+			if( op == Program.LDC && op2 == Program.EQ && op3 == Program.SEL ) {
+				Emit( Program.LDCEQSEL );
+				Emit( old[pc + 1] );
+				Emit( old[next2 + 1] );
+				pc = next2 + 2;
+			}
+			else if( op == Program.LDC && op2 == Program.EQ ) {
+				Emit( Program.LDCEQ );
+				Emit( old[pc + 1] );
+				pc = next + 1;
+			}
+			else if( op == Program.EQ && op2 == Program.SEL ) {
+				Emit( Program.EQSEL );
+				Emit( old[next + 1] );
+				pc = next + 2;
+			}
+			else if( op == Program.JOIN && old[old[pc + 1]] == Program.RTN ) {
+				Emit( Program.RTN );    // return from the end of the branch
+				pc = next;
+			}
+			else if( op == Program.LD && (op2 == Program.CAR || op2 == Program.CDR || op2 == Program.CONS) ) {
+				Emit( op2 == Program.CAR ? Program.LDCAR : op2 == Program.CDR ? Program.LDCDR : Program.LDCONS );
+				Emit( old[pc + 1] );
+				Emit( old[pc + 2] );
+				pc = next + 1;
+			}
+			else {
+				for( int i = pc; i < next; i++ )
+					Emit( old[i] );
+				pc = next;
+			}
+		}
+		newPc[old.length] = codeLen;
+
+		// move the jump targets
+		for( pc = start; pc < codeLen; pc += 1 + Program.OperandCount( code[pc] ) ) {
+			switch( code[pc] ) {
+				case Program.SEL, Program.JOIN, Program.LDF, Program.LDE, Program.LDP, Program.EQSEL ->
+					code[pc + 1] = newPc[code[pc + 1]];
+				case Program.LDCEQSEL ->
+					code[pc + 2] = newPc[code[pc + 2]];
+				default -> { }
+			}
+		}
+	}
+
+	private void Emit( int n ) {
+		if( codeLen == code.length )
+			code = Arrays.copyOf( code, code.length * 2 );
+		code[codeLen++] = n;
+	}
+
+	private int Constant( SExp x ) {
+		Integer k = constantIndex.get( x );
+		if( k == null ) {
+			k = constants.size();
+			constants.add( x );
+			constantIndex.put( x, k );
+		}
+		return k;
+	}
+
+	private static int GetInt( SExp x ) {
+		if( ! x.isNumber() )
+			throw new IllegalArgumentException( "SECD code expected a number" );
+		return ((NumberAtom) x).GetInt();
+	}
+}
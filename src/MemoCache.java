@@ -0,0 +1,170 @@
+/*
+ * MemoCache.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * Results of calls to selected functions, so a call with the same arguments
+ * doesn't run the function again.
+ *
+ * LispKit functions have no side effects. RAP sets the car of a frame, but only
+ * before anything can see it. A function applied to equal arguments gives an
+ * equal result, so a tree recursive function like FIB does linear work instead
+ * of exponential.
+ *
+ * Functions are selected by Program and the offset of their code, the pc in the
+ * fn@pc names the Profiler reports. A result is kept by the closure called and
+ * its arguments. Two closures for the same code made in different environments
+ * are different functions. Arguments are compared by structure: numbers by
+ * value, symbols and closures by identity, lists element by element. Hashing
+ * and comparing take time in the size of the arguments, so a function called
+ * with long lists may not be worth memoizing.
+ *
+ * The cache holds at most maxEntries results. When it is full the least
+ * recently used one is dropped. A MemoCache can be shared by SECDs on different
+ * threads.
+ */
+package LispKit;
+
+import java.util.*;
+
+public class MemoCache {
+	private final int maxEntries;
+	private final Map<Program, BitSet> selected = new IdentityHashMap<>();
+	private final LinkedHashMap<Key, SExp> entries;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	// a call, the closure and its arguments
+	static final class Key {
+		final Closure fn;
+		final SExp args;
+		final int hash;
+
+		Key( Closure fn, SExp args ) {
+			this.fn = fn;
+			this.args = args;
+			hash = 31 * System.identityHashCode( fn ) + Hash( args );
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals( Object o ) {
+			if( ! (o instanceof Key) )
+				return false;
+			Key k = (Key) o;
+			return fn == k.fn && hash == k.hash && Equal( args, k.args );
+		}
+	}
+
+	public MemoCache( int maxEntries ) {
+		if( maxEntries < 1 )
+			throw new IllegalArgumentException( "maxEntries must be at least 1" );
+		this.maxEntries = maxEntries;
+		entries = new LinkedHashMap<>( 16, 0.75f, true ) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry( Map.Entry<Key, SExp> eldest ) {
+				if( size() <= MemoCache.this.maxEntries )
+					return false;
+				evictions++;
+				return true;
+			}
+		};
+	}
+
+	// memoize calls of the function whose code starts at pc in p
+	public synchronized void Select( Program p, int pc ) {
+		if( pc < 0 || pc >= p.GetCode().length )
+			throw new IllegalArgumentException( "no code at " + pc );
+		selected.computeIfAbsent( p, x -> new BitSet() ).set( pc );
+	}
+
+	// the functions selected in p, null if none
+	synchronized BitSet Selected( Program p ) {
+		BitSet s = selected.get( p );
+		return s == null ? null : (BitSet) s.clone();
+	}
+
+	// the result of a call, or null if it isn't cached
+	synchronized SExp Get( Key k ) {
+		SExp r = entries.get( k );
+		if( r == null )
+			misses++;
+		else
+			hits++;
+		return r;
+	}
+
+	synchronized void Put( Key k, SExp result ) {
+		entries.put( k, result );
+	}
+
+	public synchronized long GetHits() {
+		return hits;
+	}
+
+	public synchronized long GetMisses() {
+		return misses;
+	}
+
+	public synchronized long GetEvictions() {
+		return evictions;
+	}
+
+	public synchronized int Size() {
+		return entries.size();
+	}
+
+	// drop the results and counts, the selected functions are kept
+	public synchronized void Clear() {
+		entries.clear();
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		long calls = hits + misses;
+		return String.format( "memo: %d hits, %d misses (%.1f%% hits), %d entries, %d evicted%n",
+		                      hits, misses, calls == 0 ? 0.0 : 100.0 * hits / calls, entries.size(), evictions );
+	}
+
+	// the hash of an argument, by structure
+	private static int Hash( SExp x ) {
+		int h = 1;
+		while( x.isCons() && ! (x instanceof Closure) ) {
+			h = 31 * h + Hash( x.car() );
+			x = x.cdr();
+		}
+		return 31 * h + AtomHash( x );
+	}
+
+	private static int AtomHash( SExp x ) {
+		if( x.isNumber() )
+			return ((NumberAtom) x).GetInt();
+		return System.identityHashCode( x );   // symbols are interned, closures by identity
+	}
+
+	// EQ on atoms and closures, lists by structure. Hash consed lists are
+	// usually the same cell.
+	private static boolean Equal( SExp a, SExp b ) {
+		while( a != b && a.isCons() && b.isCons() && ! (a instanceof Closure) && ! (b instanceof Closure) ) {
+			if( ! Equal( a.car(), b.car() ) )
+				return false;
+			a = a.cdr();
+			b = b.cdr();
+		}
+		if( a.isNumber() && b.isNumber() )
+			return ((NumberAtom) a).GetInt() == ((NumberAtom) b).GetInt();
+		return a == b;
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * NativeCompiler.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * The Lispkit compiler from compiler.lisp written in Java.
+ *
+ * It makes the same code as running compiler.secd on the SECD machine, cell for
+ * cell, including TAP for calls in tail position. It is the same method: each
+ * expression is compiled onto the front of the code that follows it.
+ *
+ * compiler.lisp finds a variable by searching the list of names for each level
+ * of the environment with MEMBER and POSN. Here each level is a Scope holding a
+ * hash table from name to position, so a variable is found with one lookup per
+ * level.
+ *
+ * compiler.secd loops forever on a variable that isn't bound and makes bad code
+ * for a form with parts missing. This compiler throws a CompileException for
+ * those. If the source was read with positions kept, the exception gives the
+ * line and column of the expression.
+ */
+package LispKit;
+
+import java.util.*;
+
+public class NativeCompiler {
+	private static final SExp NIL = SymbolAtom.NIL;
+
+	private static final SymbolAtom QUOTE = SymbolAtom.Intern( "QUOTE" );
+	private static final SymbolAtom IF = SymbolAtom.Intern( "IF" );
+	private static final SymbolAtom LAMBDA = SymbolAtom.Intern( "LAMBDA" );
+	private static final SymbolAtom LET = SymbolAtom.Intern( "LET" );
+	private static final SymbolAtom LETREC = SymbolAtom.Intern( "LETREC" );
+	private static final SymbolAtom DELAY = SymbolAtom.Intern( "DELAY" );
+	private static final SymbolAtom FORCE = SymbolAtom.Intern( "FORCE" );
+	private static final SymbolAtom PAR = SymbolAtom.Intern( "PAR" );
+
+	// the primitives, the number of arguments, and the opcode
+	private static final Map<SExp, int[]> PRIMITIVES = new IdentityHashMap<>();
+	static {
+		Primitive( "ADD", 2, Program.ADD );
+		Primitive( "SUB", 2, Program.SUB );
+		Primitive( "MUL", 2, Program.MUL );
+		Primitive( "DIV", 2, Program.DIV );
+		Primitive( "REM", 2, Program.REM );
+		Primitive( "LEQ", 2, Program.LEQ );
+		Primitive( "EQ", 2, Program.EQ );
+		Primitive( "CONS", 2, Program.CONS );
+		Primitive( "CAR", 1, Program.CAR );
+		Primitive( "CDR", 1, Program.CDR );
+		Primitive( "ATOM", 1, Program.ATOM );
+	}
+
+	private static void Primitive( String name, int args, int op ) {
+		PRIMITIVES.put( SymbolAtom.Intern( name ), new int[] { args, op } );
+	}
+
+	// the ends of code lists. compiler.secd shares these too.
+	private static final SExp STOP_CODE = List( Number( Program.AP ), Number( Program.STOP ) );
+	private static final SExp RTN_CODE = List( Number( Program.RTN ) );
+	private static final SExp JOIN_CODE = List( Number( Program.JOIN ) );
+	private static final SExp UPD_CODE = List( Number( Program.UPD ) );
+
+	// the names at one level of the environment
+	private static class Scope {
+		final Map<SExp, Integer> index = new HashMap<>();
+		final Scope parent;
+
+		Scope( SExp names, Scope parent ) {
+			this.parent = parent;
+			int i = 0;
+			for( SExp n = names; n.isCons(); n = n.cdr() )
+				index.putIfAbsent( n.car(), i++ );
+		}
+	}
+
+	private final Map<SExp, SExpReader.Position> positions;
+
+	// for CompileIn, the outermost scope and the names added to it, or null
+	private Scope globals = null;
+	private List<SExp> declared = null;
+
+	private NativeCompiler( Map<SExp, SExpReader.Position> positions ) {
+		this.positions = positions;
+	}
+
+	// compile a function, the same as applying compiler.secd to ( fn )
+	public static SExp Compile( SExp fn ) {
+		return Compile( fn, null );
+	}
+
+	// positions are from SExpReader.GetPositions, for error messages
+	public static SExp Compile( SExp fn, Map<SExp, SExpReader.Position> positions ) {
+		return new NativeCompiler( positions ).Comp( fn, null, STOP_CODE, null );
+	}
+
+	// compile an expression for a Repl, run in a frame holding the values of
+	// globals. The code ends with RTN.
+	// If declared isn't null, a variable that isn't bound is taken to be a
+	// global after the others, and added to it.
+	public static SExp CompileIn( SExp e, SExp globals, List<SExp> declared, Map<SExp, SExpReader.Position> positions ) {
+		NativeCompiler nc = new NativeCompiler( positions );
+		nc.globals = new Scope( globals, null );
+		nc.declared = declared;
+		return nc.Comp( e, nc.globals, RTN_CODE, null );
+	}
+
+	// compile e onto the front of c.
+	// where is the list cell e is the car of, for error messages.
+	private SExp Comp( SExp e, Scope n, SExp c, SExp where ) {
+		if( e.isNumber() || e.isSymbol() )
+			return Cons( Program.LD, new Cons( Location( e, n, where ), c ) );
+		if( ! e.isCons() )
+			throw Error( "empty expression", where );
+
+		SExp head = e.car();
+		SExp args = e.cdr();
+
+		if( head == QUOTE ) {
+			Args( e, 1, where );
+			return Cons( Program.LDC, new Cons( args.car(), c ) );
+		}
+
+		int[] prim = PRIMITIVES.get( head );
+		if( prim != null ) {
+			Args( e, prim[0], where );
+			SExp c2 = Cons( prim[1], c );
+			if( prim[0] == 1 )
+				return Comp( args.car(), n, c2, args );
+			// CONS evaluates its second argument first, the others their first
+			if( prim[1] == Program.CONS )
+				return Comp( args.cdr().car(), n, Comp( args.car(), n, c2, args ), args.cdr() );
+			return Comp( args.car(), n, Comp( args.cdr().car(), n, c2, args.cdr() ), args );
+		}
+
+		if( head == IF ) {
+			Args( e, 3, where );
+			SExp thenPt = Comp( args.cdr().car(), n, JOIN_CODE, args.cdr() );
+			SExp elsePt = Comp( args.cdr().cdr().car(), n, JOIN_CODE, args.cdr().cdr() );
+			return Comp( args.car(), n, Cons( Program.SEL, new Cons( thenPt, new Cons( elsePt, c ) ) ), args );
+		}
+
+		if( head == LAMBDA ) {
+			Args( e, 2, where );
+			Names( args.car(), args );
+			SExp body = Comp( args.cdr().car(), new Scope( args.car(), n ), RTN_CODE, args.cdr() );
+			return Cons( Program.LDF, new Cons( body, c ) );
+		}
+
+		if( head == LET || head == LETREC ) {
+			if( ! args.isCons() )
+				throw Error( Text( head ) + " has no body", where );
+			SExp defs = args.cdr();
+			Scope m = new Scope( Vars( defs ), n );
+			SExp body = Comp( args.car(), m, RTN_CODE, args );
+			if( head == LET )
+				return CompList( defs, n, Cons( Program.LDF, new Cons( body, new Cons( ApOp( c ), c ) ) ), true );
+			return Cons( Program.DUM, CompList( defs, m, Cons( Program.LDF, new Cons( body, Cons( Program.RAP, c ) ) ), true ) );
+		}
+
+		if( head == DELAY ) {
+			Args( e, 1, where );
+			return Cons( Program.LDE, new Cons( Comp( args.car(), n, UPD_CODE, args ), c ) );
+		}
+
+		if( head == PAR ) {
+			Args( e, 1, where );
+			return Cons( Program.LDP, new Cons( Comp( args.car(), n, UPD_CODE, args ), c ) );
+		}
+
+		if( head == FORCE ) {
+			Args( e, 1, where );
+			return Comp( args.car(), n, Cons( Program.AP0, c ), args );
+		}
+
+		// application
+		return CompList( args, n, Comp( head, n, new Cons( ApOp( c ), c ), e ), false );
+	}
+
+	// compile the expressions in l onto c, making a list of their values.
+	// for LET and LETREC the expressions are the cdrs of the definitions.
+	private SExp CompList( SExp l, Scope n, SExp c, boolean defs ) {
+		SExp x;
+		for( x = l; x.isCons(); x = x.cdr() ) {
+			if( defs )
+				c = Comp( x.car().cdr(), n, Cons( Program.CONS, c ), x.car() );
+			else
+				c = Comp( x.car(), n, Cons( Program.CONS, c ), x );
+		}
+		if( ! x.isNIL() )
+			throw Error( "argument list ends with a dot", l );
+		return Cons( Program.LDC, new Cons( NIL, c ) );
+	}
+
+	// AP, or TAP if the code after it is RTN
+	private static SExp ApOp( SExp c ) {
+		return Number( Eq( c.car(), Program.RTN ) ? Program.TAP : Program.AP );
+	}
+
+	// ( i . j ) for variable e, i levels out and j in the level
+	private SExp Location( SExp e, Scope n, SExp where ) {
+		int i = 0;
+		for( Scope s = n; s != null; s = s.parent, i++ ) {
+			Integer j = s.index.get( e );
+			if( j != null )
+				return new Cons( Number( i ), Number( j ) );
+		}
+		if( declared != null && e.isSymbol() ) {
+			int j = globals.index.size();
+			globals.index.put( e, j );
+			declared.add( e );
+			return new Cons( Number( i - 1 ), Number( j ) );
+		}
+		if( e.isNumber() )
+			throw Error( "number " + Text( e ) + " needs QUOTE", where );
+		throw Error( "unbound variable " + Text( e ), where );
+	}
+
+	// the names defined by a LET or LETREC
+	private SExp Vars( SExp defs ) {
+		List<SExp> vars = new ArrayList<>();
+		for( SExp d = defs; d.isCons(); d = d.cdr() ) {
+			SExp def = d.car();
+			if( ! def.isCons() || ! def.car().isSymbol() )
+				throw Error( "definition should be ( name . expression )", d );
+			vars.add( def.car() );
+		}
+		SExp l = NIL;
+		for( int i = vars.size() - 1; i >= 0; i-- )
+			l = new Cons( vars.get( i ), l );
+		return l;
+	}
+
+	private void Names( SExp names, SExp where ) {
+		SExp x;
+		for( x = names; x.isCons(); x = x.cdr() ) {
+			if( ! x.car().isSymbol() )
+				throw Error( "parameter should be a symbol", x );
+		}
+		if( ! x.isNIL() )
+			throw Error( "parameter list should be a list", where );
+	}
+
+	// check e has k arguments
+	private void Args( SExp e, int k, SExp where ) {
+		int i = 0;
+		SExp x;
+		for( x = e.cdr(); x.isCons(); x = x.cdr() )
+			i++;
+		if( i != k || ! x.isNIL() )
+			throw Error( Text( e.car() ) + " needs " + k + (k == 1 ? " argument" : " arguments"), where );
+	}
+
+	private CompileException Error( String msg, SExp where ) {
+		SExpReader.Position p = positions == null || where == null ? null : positions.get( where );
+		return new CompileException( msg, p );
+	}
+
+	private static String Text( SExp x ) {
+		if( x.isSymbol() )
+			return ((SymbolAtom) x).GetSymbol();
+		if( x.isNumber() )
+			return Integer.toString( ((NumberAtom) x).GetInt() );
+		return "( ... )";
+	}
+
+	private static SExp Cons( int op, SExp c ) {
+		return new Cons( Number( op ), c );
+	}
+
+	private static SExp Number( int n ) {
+		return NumberAtom.ValueOf( n );
+	}
+
+	private static boolean Eq( SExp x, int n ) {
+		return x.isNumber() && ((NumberAtom) x).GetInt() == n;
+	}
+
+	private static SExp List( SExp... xs ) {
+		SExp l = NIL;
+		for( int i = xs.length - 1; i >= 0; i-- )
+			l = new Cons( xs[i], l );
+		return l;
+	}
+}
@@ -7,16 +7,34 @@
  * A class for holding integers.
  * This class could be changed to hold floats of BigNums.
  *
+ * Small numbers are cached. ValueOf returns the cached NumberAtom
+ * if there is one, like Integer.valueOf.
+ *
  */
 package LispKit;
 
 public class NumberAtom extends SExp {
+	private static final int CACHE_LOW = -128;
+	private static final int CACHE_HIGH = 1024;
+	private static final NumberAtom[] cache = new NumberAtom[CACHE_HIGH - CACHE_LOW + 1];
+
+	static {
+		for( int i = 0; i < cache.length; i++ )
+			cache[i] = new NumberAtom( i + CACHE_LOW );
+	}
+
 	private final int _number;
 
 	public NumberAtom( int n ) {
 		_type = INT;
 		_number = n;
 	}
+
+	public static NumberAtom ValueOf( int n ) {
+		if( n >= CACHE_LOW && n <= CACHE_HIGH )
+			return cache[n - CACHE_LOW];
+		return new NumberAtom( n );
+	}
 	
 	public int GetInt() {
 		return _number;
@@ -0,0 +1,171 @@
+/*
+ * ParallelExecutor.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * Runs many calls of compiled functions at the same time on a ForkJoinPool.
+ *
+ * Each worker thread has its own SECD, so registers, stacks, and dumps are not
+ * shared. Symbols and small numbers are shared through thread safe tables, and
+ * RAP only changes the Frames made during a call, so one Program can be used by
+ * every worker. The code and constants of a Program never change after the
+ * Loader makes it, but two things are made later and shared by the workers:
+ *
+ *   The Jit's Table is made once, under the Program's lock, and read through a
+ *   volatile field. Its call counts are updated without a lock, so a count
+ *   can be lost, which only makes a function compile a little later. A compiled
+ *   Function is stored without a lock too, but its fields and its Nodes' are
+ *   final, so a thread that sees it sees all of it. Two threads can compile the
+ *   same function, and either one is right.
+ *
+ *   The constants hash consed for a ConsTable are kept in an object with final
+ *   fields, swapped in through a volatile field. A worker with another
+ *   ConsTable makes its own and replaces them, which costs time but never gives
+ *   it constants made of another table's cells.
+ *
+ * The executor counts calls and keeps a histogram of how long each call took.
+ * GetStats returns the throughput and latencies so far.
+ */
+package LispKit;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class ParallelExecutor implements AutoCloseable {
+	private final ForkJoinPool pool;
+	private final ThreadLocal<SECD> vms = ThreadLocal.withInitial( SECD::new );
+
+	// latency histogram, bucket i holds calls taking [2^i, 2^(i+1)) ns
+	private final AtomicLongArray buckets = new AtomicLongArray( 64 );
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator( Long::max, 0 );
+	private final long startNanos = System.nanoTime();
+	private volatile ConsTable conses = null;
+
+	public ParallelExecutor( int threads ) {
+		pool = new ForkJoinPool( threads );
+	}
+
+	public ParallelExecutor() {
+		this( Runtime.getRuntime().availableProcessors() );
+	}
+
+	// apply fn to args on one of the workers
+	public CompletableFuture<SExp> Submit( Program fn, SExp args ) {
+		return Submit( fn, args, null );
+	}
+
+	// the same, but the call is stopped if it goes past limits
+	public CompletableFuture<SExp> Submit( Program fn, SExp args, Limits limits ) {
+		return CompletableFuture.supplyAsync( () -> Run( fn, args, limits ), pool );
+	}
+
+	// apply fn to each argument list, the results are in the same order.
+	// a call that fails gives an ExecutionException for its result.
+	public List<Future<SExp>> InvokeAll( Program fn, List<SExp> argsList ) {
+		List<Future<SExp>> results = new ArrayList<>( argsList.size() );
+		for( SExp args : argsList )
+			results.add( Submit( fn, args ) );
+		return results;
+	}
+
+	// hash cons the lists functions make in t, null for plain cells
+	public void SetConsTable( ConsTable t ) {
+		conses = t;
+	}
+
+	private SExp Run( Program fn, SExp args, Limits limits ) {
+		long t0 = System.nanoTime();
+		SECD secd = vms.get();
+		secd.SetLimits( limits );
+		secd.SetConsTable( conses );
+		try {
+			return secd.exec( fn, args );
+		}
+		catch( RuntimeException e ) {
+			errors.increment();
+			throw e;
+		}
+		catch( Exception | StackOverflowError e ) {
+			errors.increment();
+			throw new CompletionException( e );
+		}
+		finally {
+			long t = System.nanoTime() - t0;
+			calls.increment();
+			totalNanos.add( t );
+			maxNanos.accumulate( t );
+			buckets.incrementAndGet( 63 - Long.numberOfLeadingZeros( Math.max( t, 1 ) ) );
+		}
+	}
+
+	public Stats GetStats() {
+		long[] counts = new long[buckets.length()];
+		for( int i = 0; i < counts.length; i++ )
+			counts[i] = buckets.get( i );
+		return new Stats( calls.sum(), errors.sum(), System.nanoTime() - startNanos,
+		                  totalNanos.sum(), maxNanos.get(), counts );
+	}
+
+	@Override
+	public void close() {
+		pool.shutdown();
+	}
+
+	/**
+	 * A snapshot of the executor's counters
+	 *
+	 * Percentiles come from the histogram, so they are the upper bound of a
+	 * power of two bucket.
+	 */
+	public static class Stats {
+		public final long calls;
+		public final long errors;
+		public final long elapsedNanos;
+		public final long totalNanos;
+		public final long maxNanos;
+		private final long[] buckets;
+
+		Stats( long calls, long errors, long elapsedNanos, long totalNanos, long maxNanos, long[] buckets ) {
+			this.calls = calls;
+			this.errors = errors;
+			this.elapsedNanos = elapsedNanos;
+			this.totalNanos = totalNanos;
+			this.maxNanos = maxNanos;
+			this.buckets = buckets;
+		}
+
+		// calls per second since the executor was made
+		public double Throughput() {
+			return elapsedNanos == 0 ? 0 : calls * 1e9 / elapsedNanos;
+		}
+
+		public double MeanNanos() {
+			return calls == 0 ? 0 : (double) totalNanos / calls;
+		}
+
+		// p between 0 and 1
+		public long PercentileNanos( double p ) {
+			long n = 0;
+			long target = (long) Math.ceil( p * calls );
+			for( int i = 0; i < buckets.length; i++ ) {
+				n += buckets[i];
+				if( n >= target && n > 0 )
+					return Math.min( 1L << (i + 1), maxNanos );
+			}
+			return maxNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format( "%d calls, %d errors, %.0f calls/s, latency mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us",
+			                      calls, errors, Throughput(), MeanNanos() / 1e3,
+			                      PercentileNanos( 0.5 ) / 1e3, PercentileNanos( 0.99 ) / 1e3, maxNanos / 1e3 );
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Profile.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * A snapshot of what a Profiler has counted.
+ *
+ * The counts can be read directly, written as folded stacks for flame graph
+ * tools (one line per call path, with the nanoseconds spent there), or sent to
+ * Java Flight Recorder as events when a recording is running.
+ */
+package LispKit;
+
+import java.io.*;
+import java.util.*;
+import jdk.jfr.*;
+
+public class Profile {
+	private final long[] opCounts;
+	private final long[] pairCounts;
+	private final List<Function> functions;
+	private final Call calls;
+
+	// the counts for one function
+	public static class Function {
+		public final String name;
+		public final long calls;
+		public final long selfNanos;
+		public final long ops;
+
+		Function( String name, long calls, long selfNanos, long ops ) {
+			this.name = name;
+			this.calls = calls;
+			this.selfNanos = selfNanos;
+			this.ops = ops;
+		}
+	}
+
+	// a node of the call tree, a function called from one path of callers
+	static class Call {
+		final String name;
+		final long selfNanos;
+		final List<Call> children = new ArrayList<>( 2 );
+
+		Call( String name, long selfNanos ) {
+			this.name = name;
+			this.selfNanos = selfNanos;
+		}
+	}
+
+	@Name( "LispKit.Function" )
+	@Label( "LispKit Function" )
+	@Category( "LispKit" )
+	static class FunctionEvent extends Event {
+		@Label( "Function" )
+		String function;
+
+		@Label( "Calls" )
+		long calls;
+
+		@Label( "Self Time" )
+		@Timespan( Timespan.NANOSECONDS )
+		long selfTime;
+
+		@Label( "Opcodes" )
+		long ops;
+	}
+
+	@Name( "LispKit.Opcode" )
+	@Label( "LispKit Opcode" )
+	@Category( "LispKit" )
+	static class OpcodeEvent extends Event {
+		@Label( "Opcode" )
+		String opcode;
+
+		@Label( "Count" )
+		long count;
+	}
+
+	Profile( long[] opCounts, long[] pairCounts, List<Function> functions, Call calls ) {
+		this.opCounts = opCounts;
+		this.pairCounts = pairCounts;
+		this.functions = Collections.unmodifiableList( functions );
+		this.calls = calls;
+	}
+
+	// the number of times each opcode ran, indexed by opcode
+	public long[] GetOpCounts() {
+		return opCounts.clone();
+	}
+
+	// the number of times op2 ran right after op1
+	public long GetPairCount( int op1, int op2 ) {
+		if( op1 < 0 || op2 < 0 || op1 >= opCounts.length || op2 >= opCounts.length )
+			return 0;
+		return pairCounts[op1 * opCounts.length + op2];
+	}
+
+	// the n most frequent pairs, as {op1, op2, count}
+	public List<long[]> TopPairs( int n ) {
+		List<long[]> pairs = new ArrayList<>();
+		for( int i = 0; i < pairCounts.length; i++ ) {
+			if( pairCounts[i] > 0 && i / opCounts.length > 0 )
+				pairs.add( new long[] { i / opCounts.length, i % opCounts.length, pairCounts[i] } );
+		}
+		pairs.sort( (a, b) -> Long.compare( b[2], a[2] ) );
+		return pairs.subList( 0, Math.min( n, pairs.size() ) );
+	}
+
+	// the functions, the most time first
+	public List<Function> GetFunctions() {
+		return functions;
+	}
+
+	// folded stacks, e.g. for flamegraph.pl. A line for each call path with time,
+	// the functions separated by ; and the nanoseconds.
+	public void WriteFolded( Writer w ) throws IOException {
+		StringBuilder path = new StringBuilder();
+		Deque<Call> nodes = new ArrayDeque<>();
+		Deque<Integer> lengths = new ArrayDeque<>();
+		for( Call c : calls.children ) {
+			nodes.push( c );
+			lengths.push( 0 );
+		}
+		while( ! nodes.isEmpty() ) {
+			Call c = nodes.pop();
+			path.setLength( lengths.pop() );
+			if( path.length() > 0 )
+				path.append( ';' );
+			path.append( c.name );
+			if( c.selfNanos > 0 ) {
+				w.append( path ).append( ' ' ).write( Long.toString( c.selfNanos ) );
+				w.write( '\n' );
+			}
+			for( Call child : c.children ) {
+				nodes.push( child );
+				lengths.push( path.length() );
+			}
+		}
+		w.flush();
+	}
+
+	// commit an event for each function and opcode, if JFR is recording them
+	public void Emit() {
+		for( Function f : functions ) {
+			FunctionEvent e = new FunctionEvent();
+			if( ! e.isEnabled() )
+				break;
+			e.function = f.name;
+			e.calls = f.calls;
+			e.selfTime = f.selfNanos;
+			e.ops = f.ops;
+			e.commit();
+		}
+		for( int op = 0; op < opCounts.length; op++ ) {
+			OpcodeEvent e = new OpcodeEvent();
+			if( ! e.isEnabled() )
+				break;
+			if( opCounts[op] > 0 ) {
+				e.opcode = Program.OpName( op );
+				e.count = opCounts[op];
+				e.commit();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append( String.format( "%-8s %14s%n", "opcode", "count" ) );
+		for( int op = 0; op < opCounts.length; op++ ) {
+			if( opCounts[op] > 0 )
+				sb.append( String.format( "%-8s %14d%n", Program.OpName( op ), opCounts[op] ) );
+		}
+		sb.append( String.format( "%n%-16s %14s%n", "pair", "count" ) );
+		for( long[] pair : TopPairs( 10 ) )
+			sb.append( String.format( "%-16s %14d%n", Program.OpName( (int) pair[0] ) + " " + Program.OpName( (int) pair[1] ), pair[2] ) );
+		sb.append( String.format( "%n%-16s %12s %14s %14s%n", "function", "calls", "self us", "opcodes" ) );
+		for( Function f : functions )
+			sb.append( String.format( "%-16s %12d %14.1f %14d%n", f.name, f.calls, f.selfNanos / 1e3, f.ops ) );
+		return sb.toString();
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Profiler.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * Counts the opcodes an SECD runs and the time spent in each function.
+ * Pairs of opcodes run one after the other are counted too, to find sequences
+ * worth making into one instruction.
+ *
+ * A function is the body of an LDF, named by where its code starts in the
+ * Program, e.g. fn@12. The code exec starts with is called main. The profiler
+ * keeps a tree of calls: AP and RAP add a child to the function running now,
+ * TAP replaces it, and RTN goes back to the caller. The time between two calls
+ * or returns is charged to the function that was running, so each node has the
+ * time spent in the function itself, not in the functions it called.
+ *
+ * A Profiler belongs to one SECD, set with SECD.SetProfiler. It isn't thread safe.
+ * Snapshot returns a copy of the counts that can be read while the SECD goes on.
+ */
+package LispKit;
+
+import java.util.*;
+
+public class Profiler {
+	private final long[] opCounts = new long[Program.MAX_OP + 1];
+	private final long[] pairCounts = new long[(Program.MAX_OP + 1) * (Program.MAX_OP + 1)];
+	private int lastOp = 0;
+	private final Map<Program, Integer> programs = new IdentityHashMap<>();
+	private Node root = new Node( null, -1, -1 );
+
+	// the functions running now, stack[0] is root
+	private Node[] stack = new Node[64];
+	private int depth = 0;
+	private long last;
+
+	// the node on the stack for each function on it, by Node.key
+	private final Map<Long, Node> onPath = new HashMap<>();
+
+	// a function called from a particular chain of callers
+	static class Node {
+		final Program program;
+		final int pc;
+		final long key;
+		final List<Node> children = new ArrayList<>( 2 );
+		long calls = 0;
+		long selfNanos = 0;
+		long ops = 0;
+		int active = 0;    // times it is on the stack
+
+		Node( Program program, int pc, long key ) {
+			this.program = program;
+			this.pc = pc;
+			this.key = key;
+		}
+
+		Node Child( Program p, int pc, long key ) {
+			for( Node n : children ) {
+				if( n.key == key )
+					return n;
+			}
+			Node n = new Node( p, pc, key );
+			children.add( n );
+			return n;
+		}
+	}
+
+	// exec is starting p
+	void Start( Program p ) {
+		ClearPath();
+		lastOp = 0;
+		stack[depth++] = root;
+		last = System.nanoTime();
+		Push( Find( p, 0 ) );
+	}
+
+	void Step( int op ) {
+		if( op >= 0 && op < opCounts.length ) {
+			opCounts[op]++;
+			pairCounts[lastOp * opCounts.length + op]++;
+			lastOp = op;
+		}
+		stack[depth - 1].ops++;
+	}
+
+	// AP or RAP of the function at pc
+	void Enter( Program p, int pc ) {
+		Charge();
+		Push( Find( p, pc ) );
+	}
+
+	// TAP of the function at pc
+	void Tail( Program p, int pc ) {
+		Charge();
+		if( depth > 2 )
+			Pop();
+		Push( Find( p, pc ) );
+	}
+
+	// RTN
+	void Exit() {
+		Charge();
+		if( depth > 2 )
+			Pop();
+	}
+
+	// STOP
+	void Stop() {
+		Charge();
+		ClearPath();
+	}
+
+	// the node for a call of the function at pc, its node on the path if it is recursive
+	private Node Find( Program p, int pc ) {
+		long key = (long) programs.computeIfAbsent( p, x -> programs.size() ) << 32 | pc;
+		Node n = onPath.get( key );
+		return n != null ? n : stack[depth - 1].Child( p, pc, key );
+	}
+
+	private void Push( Node n ) {
+		if( depth == stack.length )
+			stack = Arrays.copyOf( stack, depth * 2 );
+		n.calls++;
+		if( n.active++ == 0 )
+			onPath.put( n.key, n );
+		stack[depth++] = n;
+	}
+
+	private void Pop() {
+		Node n = stack[--depth];
+		if( --n.active == 0 )
+			onPath.remove( n.key );
+	}
+
+	private void ClearPath() {
+		for( int i = 0; i < depth; i++ )
+			stack[i].active = 0;
+		onPath.clear();
+		depth = 0;
+	}
+
+	private void Charge() {
+		long now = System.nanoTime();
+		stack[depth - 1].selfNanos += now - last;
+		last = now;
+	}
+
+	// throw away everything counted so far
+	public void Reset() {
+		Arrays.fill( opCounts, 0 );
+		Arrays.fill( pairCounts, 0 );
+		ClearPath();
+		programs.clear();
+		root = new Node( null, -1, -1 );
+	}
+
+	public Profile Snapshot() {
+		return new Profile( opCounts.clone(), pairCounts.clone(), Functions(), Copy( root ) );
+	}
+
+	// the nodes for each function added together, the ones with the most time first
+	private List<Profile.Function> Functions() {
+		Map<Node, Profile.Function> byFn = new LinkedHashMap<>();
+		Map<Program, Map<Integer, Node>> keys = new IdentityHashMap<>();
+		Deque<Node> todo = new ArrayDeque<>( root.children );
+		while( ! todo.isEmpty() ) {
+			Node n = todo.pop();
+			todo.addAll( n.children );
+			Node key = keys.computeIfAbsent( n.program, x -> new HashMap<>() ).computeIfAbsent( n.pc, x -> n );
+			Profile.Function f = byFn.get( key );
+			f = new Profile.Function( Name( n ), f == null ? n.calls : f.calls + n.calls,
+			                          f == null ? n.selfNanos : f.selfNanos + n.selfNanos,
+			                          f == null ? n.ops : f.ops + n.ops );
+			byFn.put( key, f );
+		}
+		List<Profile.Function> list = new ArrayList<>( byFn.values() );
+		list.sort( (a, b) -> Long.compare( b.selfNanos, a.selfNanos ) );
+		return list;
+	}
+
+	// the call tree with names, for the folded stacks
+	private Profile.Call Copy( Node n ) {
+		Profile.Call c = new Profile.Call( n == root ? "" : Name( n ), n.selfNanos );
+		for( Node child : n.children )
+			c.children.add( Copy( child ) );
+		return c;
+	}
+
+	private String Name( Node n ) {
+		int k = programs.getOrDefault( n.program, 0 );
+		String name = n.pc == 0 ? "main" : "fn@" + n.pc;
+		return k == 0 ? name : "p" + k + "." + name;
+	}
+}
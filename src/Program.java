@@ -0,0 +1,187 @@
+/*
+ * Program.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * Pre-decoded SECD code.
+ *
+ * The compiler produces code as nested lists of numbers. The Loader flattens
+ * those lists into a single int array. Operands are stored inline after the
+ * opcode, constants are moved into a constant pool, and the targets of
+ * SEL, JOIN, and LDF are resolved to offsets in the array.
+ *
+ *   LD   i j        load the value at (i . j) in the environment
+ *   LDC  k          push constant k from the pool
+ *   LDF  pc k       push a closure for the body at pc, k is the body's source
+ *   SEL  pc         if the top of the stack is not T, jump to pc
+ *   JOIN pc         jump to pc, the instruction after the SEL
+ *   LDE  pc         push a recipe for the code at pc, which ends with UPD
+ *   LDP  pc         the same, and start running the code on another thread
+ *
+ * All other opcodes have no operands and keep their numbers from Henderson's book.
+ * TAP (22) is AP in tail position. It is emitted by the compiler when AP is
+ * followed by RTN, and the Loader also uses it when AP is followed by a JOIN
+ * that goes to RTN.
+ *
+ * LDE (23), UPD (24), and AP0 (25) are for lazy evaluation, as in chapter 8
+ * of Henderson's book. LDE makes a Recipe, code to run later in the current
+ * environment. AP0 forces the Recipe on top of the stack: the first time,
+ * it saves the registers on the dump like AP and runs the code, then UPD
+ * stores the value in the Recipe and returns. After that AP0 just replaces the
+ * Recipe with its value. The compiler emits them for DELAY and FORCE.
+ *
+ * LDP (26) is emitted for PAR. It is LDE, except that the code may be run
+ * right away by a ForkJoinPool set on the SECD, see Spark. The Loader turns an
+ * LDP whose code makes no calls into LDE, since it is too small to be worth
+ * another thread.
+ *
+ * The Loader fuses the pairs of instructions that run most often, going by the
+ * Profiler's pair counts for the compiler compiling itself, into one:
+ *
+ *   LDCAR  i j         LD i j, CAR
+ *   LDCDR  i j         LD i j, CDR
+ *   LDCONS i j         LD i j, CONS
+ *   LDCEQ  k           LDC k, EQ
+ *   EQSEL  pc          EQ, SEL pc
+ *   LDCEQSEL k pc      LDC k, EQ, SEL pc
+ *
+ * A sequence is only fused if nothing jumps into the middle of it.
+ * A JOIN that goes to RTN is replaced by RTN.
+ */
+package LispKit;
+
+public class Program {
+	// opcodes
+	public static final int LD = 1;
+	public static final int LDC = 2;
+	public static final int LDF = 3;
+	public static final int AP = 4;
+	public static final int RTN = 5;
+	public static final int DUM = 6;
+	public static final int RAP = 7;
+	public static final int SEL = 8;
+	public static final int JOIN = 9;
+	public static final int CAR = 10;
+	public static final int CDR = 11;
+	public static final int ATOM = 12;
+	public static final int CONS = 13;
+	public static final int EQ = 14;
+	public static final int ADD = 15;
+	public static final int SUB = 16;
+	public static final int MUL = 17;
+	public static final int DIV = 18;
+	public static final int REM = 19;
+	public static final int LEQ = 20;
+	public static final int STOP = 21;
+	public static final int TAP = 22;
+
+	// lazy evaluation
+	public static final int LDE = 23;
+	public static final int UPD = 24;
+	public static final int AP0 = 25;
+	public static final int LDP = 26;
+
+	// superinstructions made by the Loader
+	public static final int LDCAR = 27;
+	public static final int LDCDR = 28;
+	public static final int LDCONS = 29;
+	public static final int LDCEQ = 30;
+	public static final int EQSEL = 31;
+	public static final int LDCEQSEL = 32;
+
+	// the largest opcode the compiler emits
+	public static final int MAX_CODE_OP = LDP;
+
+	private static final String[] NAMES = {
+		"?", "LD", "LDC", "LDF", "AP", "RTN", "DUM", "RAP", "SEL", "JOIN", "CAR", "CDR",
+		"ATOM", "CONS", "EQ", "ADD", "SUB", "MUL", "DIV", "REM", "LEQ", "STOP", "TAP",
+		"LDE", "UPD", "AP0", "LDP",
+		"LDCAR", "LDCDR", "LDCONS", "LDCEQ", "EQSEL", "LDCEQSEL"
+	};
+
+	// the largest opcode
+	public static final int MAX_OP = LDCEQSEL;
+
+	private final int[] _code;
+	private final SExp[] _constants;
+	private final SExp _source;
+	private volatile Jit.Table _jitTable;   // made on the first call with the Jit on
+	private volatile SharedConstants _shared;
+
+	// the constants with the ones LDC loads hash consed by a ConsTable
+	private static final class SharedConstants {
+		final ConsTable table;
+		final SExp[] constants;
+
+		SharedConstants( ConsTable table, SExp[] constants ) {
+			this.table = table;
+			this.constants = constants;
+		}
+	}
+
+	public Program( int[] code, SExp[] constants, SExp source ) {
+		_code = code;
+		_constants = constants;
+		_source = source;
+	}
+
+	public int[] GetCode() {
+		return _code;
+	}
+
+	public SExp[] GetConstants() {
+		return _constants;
+	}
+
+	// the constants, with the lists LDC loads made of t's cells.
+	// They are kept for the last t.
+	SExp[] GetConstants( ConsTable t ) {
+		SharedConstants sc = _shared;
+		if( sc != null && sc.table == t )
+			return sc.constants;
+
+		SExp[] k = _constants.clone();
+		for( int pc = 0; pc < _code.length; pc += 1 + OperandCount( _code[pc] ) ) {
+			switch( _code[pc] ) {
+				case LDC, LDCEQ, LDCEQSEL -> k[_code[pc + 1]] = t.Intern( k[_code[pc + 1]] );
+				default -> { }
+			}
+		}
+		_shared = new SharedConstants( t, k );
+		return k;
+	}
+
+	// the list form the program was loaded from
+	public SExp GetSource() {
+		return _source;
+	}
+
+	// the Jit's call counts and compiled functions
+	Jit.Table GetJitTable() {
+		Jit.Table t = _jitTable;
+		if( t == null ) {
+			synchronized( this ) {
+				t = _jitTable;
+				if( t == null )
+					_jitTable = t = new Jit.Table( _code.length );
+			}
+		}
+		return t;
+	}
+
+	// number of operands following an opcode
+	public static int OperandCount( int op ) {
+		return switch( op ) {
+			case LD, LDCAR, LDCDR, LDCONS -> 2;
+			case LDC, SEL, JOIN, LDE, LDP, LDCEQ, EQSEL -> 1;
+			case LDF, LDCEQSEL -> 2;
+			default -> 0;
+		};
+	}
+
+	public static String OpName( int op ) {
+		return op > 0 && op < NAMES.length ? NAMES[op] : Integer.toString( op );
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * Recipe.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * A delayed value made by LDE, a recipe in Henderson's book.
+ *
+ * It holds code and the environment to run it in. The first AP0 of the recipe
+ * runs the code, and UPD keeps the value, so after that the code isn't run again.
+ *
+ * A Recipe can be forced on more than one thread when PAR is used. The value
+ * is volatile, and the code and environment are never cleared, so a thread
+ * that sees no value can still run the code. Two threads may both run it, but
+ * with no side effects they get equal values.
+ *
+ * When running a Program, the code is an offset and the environment a Frame.
+ * The list form SECD keeps the code list and the environment list.
+ */
+package LispKit;
+
+public class Recipe extends SExp {
+	private final int _pc;
+	private final Frame _frame;
+	private final SExp _code;
+	private final SExp _env;
+	private volatile SExp _value = null;
+
+	public Recipe( int pc, Frame frame ) {
+		_pc = pc;
+		_frame = frame;
+		_code = null;
+		_env = null;
+	}
+
+	public Recipe( SExp code, SExp env ) {
+		_pc = -1;
+		_frame = null;
+		_code = code;
+		_env = env;
+	}
+
+	public boolean IsDone() {
+		return _value != null;
+	}
+
+	// the value, null until it has been forced
+	public SExp GetValue() {
+		return _value;
+	}
+
+	// for UPD
+	public void SetValue( SExp value ) {
+		_value = value;
+	}
+
+	public int GetPc() {
+		return _pc;
+	}
+
+	public Frame GetFrame() {
+		return _frame;
+	}
+
+	public SExp GetCode() {
+		return _code;
+	}
+
+	public SExp GetEnv() {
+		return _env;
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Repl.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * A read eval print loop with global definitions that are kept between inputs.
+ *
+ *   ( DEFINE name expression )   evaluate the expression and bind name to it
+ *   expression                   evaluate it and print the value
+ *
+ * Each input is compiled by itself by the NativeCompiler, with the global names
+ * as the outermost level of the environment. The code of a DEFINE is added to
+ * the end of a Program that grows with each definition, by Loader.Extend.
+ * Nothing compiled before is compiled or loaded again, and closures made
+ * earlier still point at the right code. An expression is laid out after the
+ * same code, since the closures it calls are offsets into it, but in a Program
+ * that is dropped once the expression has run, so evaluating doesn't make the
+ * global Program grow.
+ *
+ * The values of the globals are the slots of one Frame, which every compiled
+ * input runs in. A function finds a global with LD when it is called, so
+ * redefining a name changes it for everything that uses it. A name that isn't
+ * defined yet in a DEFINE is added as a global with the value UNDEFINED, so
+ * functions can call each other whatever order they are defined in.
+ *
+ * The code of a replaced definition stays in the Program. It is small next to
+ * the time saved by not recompiling the rest.
+ */
+package LispKit;
+
+import java.io.*;
+import java.util.*;
+
+public class Repl {
+	private static final SymbolAtom DEFINE = SymbolAtom.Intern( "DEFINE" );
+
+	// the value of a global that is used before it is defined
+	public static final SymbolAtom UNDEFINED = SymbolAtom.Intern( "UNDEFINED" );
+
+	private Program program = new Program( new int[0], new SExp[0], SymbolAtom.NIL );
+	private final Map<SExp, Integer> index = new HashMap<>();
+	private final List<SExp> names = new ArrayList<>();
+	private SExp[] slots = new SExp[16];
+	private final Frame globals = new Frame( slots, null );
+	private final SECD secd = new SECD();
+
+	// the value of e, using the definitions so far
+	public SExp Eval( SExp e ) {
+		return Eval( e, null );
+	}
+
+	public SExp Eval( SExp e, Map<SExp, SExpReader.Position> positions ) {
+		SExp code = NativeCompiler.CompileIn( e, NameList(), null, positions );
+		return secd.RunClosure( Loader.Extend( program, code ), program.GetCode().length, globals );
+	}
+
+	// bind name to the value of e. If e fails, name keeps its old value, and
+	// the globals it would have declared and its code are dropped.
+	public void Define( SExp name, SExp e ) {
+		Define( name, e, null );
+	}
+
+	public void Define( SExp name, SExp e, Map<SExp, SExpReader.Position> positions ) {
+		if( ! name.isSymbol() )
+			throw new CompileException( "DEFINE needs a name", null );
+		int known = names.size();
+		boolean done = false;
+		try {
+			Declare( name );
+			List<SExp> declared = new ArrayList<>();
+			SExp code = NativeCompiler.CompileIn( e, NameList(), declared, positions );
+			for( SExp x : declared )
+				Declare( x );
+			Program p = Loader.Extend( program, code );
+			SExp value = secd.RunClosure( p, program.GetCode().length, globals );
+			program = p;
+			slots[index.get( name )] = value;
+			done = true;
+		}
+		finally {
+			if( ! done )
+				Forget( known );
+		}
+	}
+
+	// add name as a global if it isn't one
+	private void Declare( SExp name ) {
+		if( index.containsKey( name ) )
+			return;
+		int j = names.size();
+		index.put( name, j );
+		names.add( name );
+		if( j == slots.length ) {
+			slots = Arrays.copyOf( slots, j * 2 );
+			globals.SetSlots( slots );
+		}
+		slots[j] = UNDEFINED;
+	}
+
+	// remove the globals declared after the first n
+	private void Forget( int n ) {
+		for( int j = names.size() - 1; j >= n; j-- ) {
+			index.remove( names.remove( j ) );
+			slots[j] = null;
+		}
+	}
+
+	// the value of a global, or null if it isn't defined
+	public SExp Get( SExp name ) {
+		Integer j = index.get( name );
+		return j == null ? null : slots[j];
+	}
+
+	// read and answer inputs until the end of in
+	public void Loop( BufferedReader in, SExpWriter w ) throws IOException {
+		SExpReader r = new SExpReader( in );
+		r.KeepPositions();
+		Iterator<SExp> it = r.Expressions();
+		while( it.hasNext() ) {
+			SExp x = it.next();
+			try {
+				if( x.isCons() && x.car() == DEFINE ) {
+					Define( x.cdr().car(), x.cdr().cdr().car(), r.GetPositions() );
+					w.PutSExp( x.cdr().car() );
+				}
+				else
+					w.PutSExp( Eval( x, r.GetPositions() ) );
+			}
+			catch( RuntimeException | StackOverflowError e ) {
+				w.PutToken( "error:" );
+				w.PutToken( e.getMessage() == null ? e.toString() : e.getMessage() );
+			}
+			w.ForceLineOut();
+			r.GetPositions().clear();    // only needed while x is compiled
+		}
+	}
+
+	private SExp NameList() {
+		SExp l = SymbolAtom.NIL;
+		for( int i = names.size() - 1; i >= 0; i-- )
+			l = new Cons( names.get( i ), l );
+		return l;
+	}
+}
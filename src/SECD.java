@@ -14,17 +14,63 @@
 package LispKit;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
 
 public class SECD {
-	private final SymbolAtom t = new SymbolAtom( "t" );
-	private final SymbolAtom f = new SymbolAtom( "f" );
-	private final SExp nil = new SymbolAtom();
+	private final SymbolAtom t = SymbolAtom.T;
+	private final SymbolAtom f = SymbolAtom.F;
+	private final SExp nil = SymbolAtom.NIL;
 
 	private SExp s;				// stack
 	private SExp e = nil;		// environment
 	private SExp c;				// code
 	private SExp d = nil;		// dump
 
+	// stack and dump used when running a Program
+	private SExp[] stack = new SExp[64];
+	private int[] istack = new int[64];   // an int whose stack slot is null
+	private int sp = 0;
+	private int[] dumpSp = new int[32];
+	private Frame[] dumpEnv = new Frame[32];
+	private int[] dumpPc = new int[32];
+	private MemoCache.Key[] dumpKey = new MemoCache.Key[32];   // the call to memoize on RTN
+	private int dp = 0;
+
+	// counts opcodes and time in functions when not null
+	private Profiler profiler = null;
+
+	// makes the cells for CONS when not null
+	private ConsTable conses = null;
+
+	// results of selected functions when not null
+	private MemoCache memo = null;
+
+	// runs the code of PAR when not null
+	private ForkJoinPool par = null;
+
+	// bounds on each call when not null
+	private Limits limits = null;
+
+	// calls before a function is compiled by the Jit, 0 to never compile
+	private int jitThreshold = Integer.getInteger( "lispkit.jit", JIT_THRESHOLD );
+	private Jit.Context jit = null;
+	private boolean jitLevel = false;    // runs functions called from compiled code
+
+	public static final int JIT_THRESHOLD = 1000;
+
+	public SECD() {
+	}
+
+	// an SECD for running functions called from compiled code
+	SECD( Jit.Context ctx ) {
+		jitThreshold = ctx.threshold;
+		jit = ctx;
+		jitLevel = true;
+	}
+
 	private void print_registers() throws IOException {
 		SExpWriter sw = new SExpWriter();
 
@@ -172,8 +218,8 @@ public class SECD {
 					SExp c5 = c4.cdr();   // cdr(cdr(cdr(c))) 
 					d = new Cons( c5, d );
 					Cons s2 = (Cons) s;
-					SymbolAtom s3 = (SymbolAtom) s2.car();  // car(s) 
-					if( s3.GetSymbol().toUpperCase().equals( "T" ) ) 
+					SExp s3 = s2.car();  // car(s) 
+					if( s3 == t ) 
 						c = c3.car();  // car(cdr(c))
 					else
 						c = c4.car();  // car(cdr(cdr(c)))
@@ -244,11 +290,8 @@ public class SECD {
 							s = new Cons( t, s6 );  // cons(t, cdr(cdr(s)))				
 					}
 					else if( s3.isSymbol() && s5.isSymbol() ) {
-						SymbolAtom sa1 = (SymbolAtom) s3;  // car(s)
-						String sv1 = sa1.GetSymbol();
-						SymbolAtom sa2 = (SymbolAtom) s5;  // cdr(car(s))
-						String sv2 = sa2.GetSymbol();
-						if( sv1.equals( sv2 ) ) 
+						// symbols are interned
+						if( s3 == s5 ) 
 							s = new Cons( t, s6 );    // cons(t, cdr(cdr(s)))	
 						else 
 							s = new Cons( f, s6 );	  // cons(f, cdr(cdr(s)))	
@@ -276,7 +319,7 @@ public class SECD {
 					int n = np.GetInt();
 					NumberAtom  np2 = (NumberAtom) s2.car(); // number(car(s))
 					int n2 = np2.GetInt();
-					NumberAtom np3 = new NumberAtom( n + n2 ); // number(n + n2)
+					NumberAtom np3 = NumberAtom.ValueOf( n + n2 ); // number(n + n2)
 					SExp s4 = s3.cdr();  // cdr(cdr(s))
 					s = new Cons( np3, s4);  // cons(number(car(cdr(s)) + number(car(s))), cdr(cdr(s)))
 					Cons c2 = (Cons) c;   // cdr(c)
@@ -290,7 +333,7 @@ public class SECD {
 					int n = np.GetInt();
 					NumberAtom  np2 = (NumberAtom) s2.car(); // number(car(s))
 					int n2 = np2.GetInt();
-					NumberAtom np3 = new NumberAtom( n - n2 );  // number(n - n2)
+					NumberAtom np3 = NumberAtom.ValueOf( n - n2 );  // number(n - n2)
 					SExp s4 = s3.cdr();      // cdr(cdr(s))
 					s = new Cons( np3, s4);  // cons(number(car(cdr(s)) - number(car(s))), cdr(cdr(s)))
 					Cons c2 = (Cons) c;
@@ -304,7 +347,7 @@ public class SECD {
 					int n = np.GetInt();
 					NumberAtom  np2 = (NumberAtom) s2.car();   // number(car(cdr(s)))
 					int n2 = np2.GetInt();
-					NumberAtom np3 = new NumberAtom( n * n2 ); // number(n * n2)
+					NumberAtom np3 = NumberAtom.ValueOf( n * n2 ); // number(n * n2)
 					SExp s4 = s3.cdr();    // cdr(cdr(s))
 					s = new Cons( np3, s4);  // cons(number(car(cdr(s)) * number(car(s))), cdr(cdr(s)))
 					Cons c2 = (Cons) c;
@@ -318,7 +361,7 @@ public class SECD {
 					int n = np.GetInt();
 					NumberAtom  np2 = (NumberAtom) s2.car();  // number(car(cdr(s)))
 					int n2 = np2.GetInt();
-					NumberAtom np3 = new NumberAtom( n / n2 ); // number(n / n2)
+					NumberAtom np3 = NumberAtom.ValueOf( n / n2 ); // number(n / n2)
 					SExp s4 = s3.cdr();  // cdr(cdr(s))
 					s = new Cons( np3, s4);  // cons(number(car(cdr(s)) / number(car(s))), cdr(cdr(s)))
 					Cons c2 = (Cons) c;
@@ -332,7 +375,7 @@ public class SECD {
 					int n = np.GetInt();
 					NumberAtom  np2 = (NumberAtom) s2.car(); // number(car(cdr(s)))
 					int n2 = np2.GetInt();
-					NumberAtom np3 = new NumberAtom( n % n2 );  // number(n % n2)
+					NumberAtom np3 = NumberAtom.ValueOf( n % n2 );  // number(n % n2)
 					SExp s4 = s3.cdr();   // cdr(cdr(s))
 					s = new Cons( np3, s4);   // cons(number(car(cdr(s)) % number(car(s))), cdr(cdr(s)))
 					Cons c2 = (Cons) c;
@@ -357,12 +400,678 @@ public class SECD {
 
 			case 21 -> // STOP
 				done = true;
+
+			case 22 -> {   // TAP
+					// AP followed by RTN. The caller's frame on the dump is reused,
+					// so nothing is saved.
+					Cons s2 = (Cons) s;
+					Cons s3 = (Cons) s2.cdr();  // cdr(s)
+					SExp s6 = s2.car();   // car(s)
+					e = new Cons( s3.car(), s6.cdr() );    // cons(car(cdr(s)), cdr(car(s)))
+					c = s6.car();    // car(car(s))
+					s = nil;
+				}
+
+			case 23, 26 -> {   // LDE, LDP runs the same here
+					Cons c2 = (Cons) c;
+					Cons c3 = (Cons) c2.cdr();   // cdr(c)
+					s = new Cons( new Recipe( c3.car(), e ), s );   // cons(recipe(car(cdr(c)), e), s)
+					c = c3.cdr();    // cdr(cdr(c))
+				}
+
+			case 24 -> {   // UPD
+					// the recipe is on top of the stack saved by AP0
+					Cons s2 = (Cons) s;
+					SExp x = s2.car();    // car(s)
+					Cons d2 = (Cons) d;
+					Cons d3 = (Cons) d2.car();   // car(d)
+					((Recipe) d3.car()).SetValue( x );
+					s = new Cons( x, d3.cdr() );   // cons(car(s), cdr(car(d)))
+					Cons d4 = (Cons) d2.cdr();  // cdr(d)
+					e = d4.car();  // car(cdr(d))
+					Cons d5 = (Cons) d4.cdr();  // cdr(cdr(d))
+					c = d5.car();   // car(cdr(cdr(d)))
+					d = d5.cdr();  // cdr(cdr(cdr(d)))
+				}
+
+			case 25 -> {   // AP0
+					Cons s2 = (Cons) s;
+					Cons c2 = (Cons) c;
+					if( s2.car() instanceof Recipe r ) {
+						if( r.IsDone() ) {
+							s = new Cons( r.GetValue(), s2.cdr() );
+							c = c2.cdr();
+						}
+						else {
+							d = new Cons( s, new Cons( e, new Cons( c2.cdr(), d ) ) );   // cons(s, cons(e, cons(cdr(c), d)))
+							e = r.GetEnv();
+							c = r.GetCode();
+							s = nil;
+						}
+					}
+					else
+						c = c2.cdr();    // already a value
+				}
 			}
 		}
 		
 		return ((Cons)s).car();
 	}
 	
+	/**
+	 * Run a Program made by the Loader.
+	 * 
+	 * c is replaced by pc, an offset into the code array. Operands are read
+	 * from the array, so there is no walking down the code list.
+	 * SEL and JOIN don't use the dump, the Loader has resolved where JOIN goes.
+	 *
+	 * s and d are arrays rather than lists. AP doesn't save the rest of the stack,
+	 * the called function pushes on top of it, and RTN cuts the stack back to
+	 * where it was. A dump frame is the stack height, the environment, and the pc
+	 * to return to. Nothing is allocated for the stack or dump unless the arrays
+	 * have to grow. They are only turned into lists when the registers are printed.
+	 *
+	 * The environment is a chain of Frames. AP copies the argument list into a
+	 * Frame, and LD is two array lookups.
+	 *
+	 * The results of ADD, SUB, MUL, DIV, and REM are not boxed. The int goes in
+	 * istack and the stack slot is left null. A NumberAtom is only made when the
+	 * number is CONSed or returned from exec.
+	 *
+	 * TAP doesn't push a dump frame. It drops what the current function has on
+	 * the stack, so a tail recursive loop runs in constant space.
+	 *
+	 * AP0 of a Recipe that hasn't been forced pushes a dump frame with the
+	 * Recipe left on the stack under it. UPD finds it there, keeps the value in
+	 * it, and puts the value in its place.
+	 *
+	 * LDP is LDE, but with a ForkJoinPool set it may make a Spark, a Recipe
+	 * that is already running on the pool. AP0 of a Spark waits for it.
+	 *
+	 * With a Profiler set, each opcode is counted and calls and returns are
+	 * timed. With Limits set, a countdown is kept and the limits are checked when
+	 * it runs out. Without either one, the only cost is one test per instruction,
+	 * the same one that checks dump_regs. Compiled functions run under Limits too,
+	 * sharing the countdown through the Limits.Budget in the Jit's Context.
+	 *
+	 * With a MemoCache set, AP of a selected function looks up the call first.
+	 * If it isn't there, the call's key goes on the dump and RTN saves the result.
+	 * TAP only looks up, since its result is the result of the caller.
+	 *
+	 * Otherwise AP and TAP count calls for the Jit, and call the compiled
+	 * function instead when there is one. See Jit.java.
+	 */
+	public SExp exec( Program p, SExp args ) throws IOException {
+		return exec( p, args, false );
+	}
+
+	public SExp exec( Program p, SExp args, boolean dump_regs ) throws IOException {
+		return Run( p, 0, null, args, dump_regs );
+	}
+
+	// run the function at pc, for the Jit. It returns at the RTN with an empty dump.
+	SExp RunClosure( Program p, int pc, Frame env ) {
+		try {
+			return Run( p, pc, env, null, false );
+		}
+		catch( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	// run the recipe at pc for a Spark. It returns at the UPD with an empty dump.
+	SExp RunRecipe( Program p, int pc, Frame env ) {
+		try {
+			return Run( p, pc, env, null, false );
+		}
+		catch( IOException e ) {
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	// an SECD for a Spark, set up like this one
+	SECD Child() {
+		SECD s = new SECD();
+		s.jitThreshold = jitThreshold;
+		s.conses = conses;
+		s.memo = memo;
+		s.par = par;
+		return s;
+	}
+
+	// start at pc with args on the stack, or an empty stack if args is null
+	private SExp Run( Program p, int pc, Frame env, SExp args, boolean dump_regs ) throws IOException {
+		final int[] code = p.GetCode();
+		final ConsTable conses = this.conses;
+		final SExp[] constants = conses == null ? p.GetConstants() : p.GetConstants( conses );
+		final Profiler prof = profiler;
+		if( this.jit == null && jitThreshold > 0 )
+			this.jit = new Jit.Context( this, jitThreshold );
+
+		// a call from compiled code goes on with the budget of the call it is part of
+		final Limits.Budget budget;
+		if( jitLevel )
+			budget = this.jit.budget;
+		else {
+			budget = limits == null ? null : new Limits.Budget( limits );
+			if( this.jit != null )
+				this.jit.budget = budget;
+		}
+		int countdown = budget == null ? 0 : budget.countdown;
+
+		final boolean slow = dump_regs || prof != null || budget != null;
+		final MemoCache memo = this.memo;
+		final BitSet memoFns = memo == null ? null : memo.Selected( p );
+		final Jit.Context jit = dump_regs || prof != null || memoFns != null ? null : this.jit;
+		final ForkJoinPool par = slow ? null : this.par;
+		if( jit != null )
+			jit.conses = conses;
+		if( conses != null && args != null )
+			args = conses.Intern( args );
+
+		// the registers are kept in locals while running
+		SExp[] stack = this.stack;
+		int[] istack = this.istack;
+		int sp = 0;
+
+		dp = 0;
+		if( args != null )
+			stack[sp++] = args;
+		if( prof != null )
+			prof.Start( p );
+
+		boolean done = false;
+		while( ! done ) {
+			int op = code[pc];
+
+			if( slow ) {
+				if( budget != null && --countdown < 0 )
+					countdown = CheckLimits( budget, stack, sp );
+
+				if( prof != null )
+					Profile( prof, p, op, stack, sp );
+
+				if ( dump_regs ) {
+					System.out.println( "op: " + op + " pc: " + pc );
+					this.sp = sp;
+					s = StackList();
+					e = Frame.ToList( env );
+					c = nil;
+					d = DumpList();
+					print_registers();
+				}
+			}
+
+			if( sp + 2 > stack.length ) {
+				stack = this.stack = Arrays.copyOf( stack, stack.length * 2 );
+				istack = this.istack = Arrays.copyOf( istack, stack.length );
+			}
+
+			switch( op ) {
+				case Program.LD -> {
+					stack[sp++] = env.Get( code[pc + 1], code[pc + 2] );
+					pc += 3;
+				}
+
+				case Program.LDC -> {
+					stack[sp++] = constants[code[pc + 1]];
+					pc += 2;
+				}
+
+				case Program.LDF -> {
+					stack[sp++] = new Closure( constants[code[pc + 2]], env, code[pc + 1] );
+					pc += 3;
+				}
+
+				case Program.AP -> {
+					Closure cl = (Closure) stack[--sp];
+					SExp fnArgs = stack[--sp];
+					MemoCache.Key key = null;
+					SExp r = null;
+					if( memoFns != null && memoFns.get( cl.GetPc() ) ) {
+						key = new MemoCache.Key( cl, fnArgs );
+						r = memo.Get( key );
+					}
+					Jit.Function jf = jit == null ? null : jit.Compiled( p, cl.GetPc() );
+					if( r != null ) {
+						if( prof != null )
+							prof.Exit();    // it saw the AP
+						stack[sp++] = r;
+						pc += 1;
+					}
+					else if( jf != null ) {
+						if( budget != null )
+							budget.countdown = countdown;
+						stack[sp++] = jit.Run( jf, new Frame( Frame.FromList( fnArgs ), cl.GetFrame() ) );
+						if( budget != null )
+							countdown = budget.countdown;
+						pc += 1;
+					}
+					else {
+						PushDump( sp, env, pc + 1, key );
+						env = new Frame( Frame.FromList( fnArgs ), cl.GetFrame() );
+						pc = cl.GetPc();
+					}
+				}
+
+				case Program.TAP -> {
+					Closure cl = (Closure) stack[--sp];
+					SExp fnArgs = stack[--sp];
+					if( dp > 0 )
+						sp = dumpSp[dp - 1];
+					env = new Frame( Frame.FromList( fnArgs ), cl.GetFrame() );
+					pc = cl.GetPc();
+
+					// a memoized result, or run the compiled function.
+					// Then return the value, as RTN does.
+					SExp r = null;
+					if( memoFns != null && memoFns.get( pc ) ) {
+						r = memo.Get( new MemoCache.Key( cl, fnArgs ) );
+						if( r != null && prof != null )
+							prof.Exit();
+					}
+					else if( jit != null ) {
+						Jit.Function jf = jit.Compiled( p, pc );
+						if( jf != null ) {
+							if( budget != null )
+								budget.countdown = countdown;
+							r = jit.Run( jf, env );
+							if( budget != null )
+								countdown = budget.countdown;
+						}
+					}
+					if( r != null ) {
+						if( dp == 0 )
+							done = true;
+						else {
+							dp--;
+							sp = dumpSp[dp];
+							env = dumpEnv[dp];
+							pc = dumpPc[dp];
+							dumpEnv[dp] = null;
+							if( dumpKey[dp] != null ) {
+								memo.Put( dumpKey[dp], r );
+								dumpKey[dp] = null;
+							}
+						}
+						stack[sp++] = r;
+					}
+				}
+
+				case Program.RTN -> {
+					if( dp == 0 ) {
+						done = true;   // the end of RunClosure
+						break;
+					}
+					SExp r = stack[sp - 1];
+					int ir = istack[sp - 1];
+					dp--;
+					if( dumpKey[dp] != null ) {
+						memo.Put( dumpKey[dp], Box( stack, istack, sp - 1 ) );
+						dumpKey[dp] = null;
+					}
+					sp = dumpSp[dp];
+					istack[sp] = ir;
+					env = dumpEnv[dp];
+					pc = dumpPc[dp];
+					dumpEnv[dp] = null;
+					stack[sp++] = r;
+				}
+
+				case Program.DUM -> {
+					env = new Frame( env );
+					pc += 1;
+				}
+
+				case Program.RAP -> {
+					Closure cl = (Closure) stack[--sp];
+					SExp fnArgs = stack[--sp];
+					PushDump( sp, env.GetParent(), pc + 1, null );
+					env = cl.GetFrame();
+					env.SetSlots( Frame.FromList( fnArgs ) );
+					pc = cl.GetPc();
+				}
+
+				case Program.SEL -> {
+					if( stack[--sp] == t )
+						pc += 2;
+					else
+						pc = code[pc + 1];
+				}
+
+				case Program.JOIN ->
+					pc = code[pc + 1];
+
+				case Program.CAR -> {
+					stack[sp - 1] = ((Cons) Box( stack, istack, sp - 1 )).car();
+					pc += 1;
+				}
+
+				case Program.CDR -> {
+					stack[sp - 1] = ((Cons) Box( stack, istack, sp - 1 )).cdr();
+					pc += 1;
+				}
+
+				case Program.ATOM -> {
+					SExp a = stack[sp - 1];
+					stack[sp - 1] = (a == null || a.isNumber() || a.isSymbol()) ? t : f;
+					pc += 1;
+				}
+
+				case Program.CONS -> {
+					SExp a = Box( stack, istack, --sp );
+					stack[sp - 1] = MakeCons( conses, a, Box( stack, istack, sp - 1 ) );   // cons(car(s), car(cdr(s)))
+					pc += 1;
+				}
+
+				case Program.EQ -> {
+					SExp a = stack[--sp];
+					SExp b = stack[sp - 1];
+					boolean eq;
+					if( a == null || b == null )
+						eq = IsInt( stack, sp ) && IsInt( stack, sp - 1 ) && IntAt( stack, istack, sp ) == IntAt( stack, istack, sp - 1 );
+					else
+						eq = Eq( a, b );
+					stack[sp - 1] = eq ? t : f;
+					pc += 1;
+				}
+
+				case Program.ADD, Program.SUB, Program.MUL, Program.DIV, Program.REM -> {
+					int n2 = IntAt( stack, istack, --sp );    // number(car(s))
+					int n = IntAt( stack, istack, sp - 1 );   // number(car(cdr(s)))
+					stack[sp - 1] = null;
+					istack[sp - 1] = switch( op ) {
+						case Program.ADD -> n + n2;
+						case Program.SUB -> n - n2;
+						case Program.MUL -> n * n2;
+						case Program.DIV -> n / n2;
+						default -> n % n2;
+					};
+					pc += 1;
+				}
+
+				case Program.LEQ -> {
+					int n2 = IntAt( stack, istack, --sp );
+					int n = IntAt( stack, istack, sp - 1 );
+					stack[sp - 1] = n <= n2 ? t : f;
+					pc += 1;
+				}
+
+				case Program.STOP ->
+					done = true;
+
+				case Program.LDE -> {
+					stack[sp++] = new Recipe( code[pc + 1], env );
+					pc += 2;
+				}
+
+				case Program.LDP -> {
+					if( par == null )
+						stack[sp++] = new Recipe( code[pc + 1], env );
+					else
+						stack[sp++] = Spark.Make( p, code[pc + 1], env, par, this );
+					pc += 2;
+				}
+
+				case Program.AP0 -> {
+					if( stack[sp - 1] instanceof Recipe r ) {
+						if( r.IsDone() ) {
+							stack[sp - 1] = r.GetValue();
+							pc += 1;
+						}
+						else if( r instanceof Spark s ) {
+							stack[sp - 1] = s.Join();
+							pc += 1;
+						}
+						else {
+							PushDump( sp, env, pc + 1, null );
+							env = r.GetFrame();
+							pc = r.GetPc();
+						}
+					}
+					else
+						pc += 1;    // already a value
+				}
+
+				case Program.UPD -> {
+					if( dp == 0 ) {
+						done = true;   // the end of RunRecipe
+						break;
+					}
+					SExp r = Box( stack, istack, sp - 1 );
+					dp--;
+					sp = dumpSp[dp];
+					((Recipe) stack[sp - 1]).SetValue( r );
+					stack[sp - 1] = r;
+					env = dumpEnv[dp];
+					pc = dumpPc[dp];
+					dumpEnv[dp] = null;
+				}
+
+				case Program.LDCAR -> {
+					stack[sp++] = ((Cons) env.Get( code[pc + 1], code[pc + 2] )).car();
+					pc += 3;
+				}
+
+				case Program.LDCDR -> {
+					stack[sp++] = ((Cons) env.Get( code[pc + 1], code[pc + 2] )).cdr();
+					pc += 3;
+				}
+
+				case Program.LDCONS -> {
+					SExp a = env.Get( code[pc + 1], code[pc + 2] );
+					stack[sp - 1] = MakeCons( conses, a, Box( stack, istack, sp - 1 ) );
+					pc += 3;
+				}
+
+				case Program.LDCEQ -> {
+					stack[sp - 1] = EqConstant( constants[code[pc + 1]], stack, istack, sp - 1 ) ? t : f;
+					pc += 2;
+				}
+
+				case Program.EQSEL -> {
+					SExp a = stack[--sp];
+					SExp b = stack[--sp];
+					boolean eq;
+					if( a == null || b == null )
+						eq = IsInt( stack, sp + 1 ) && IsInt( stack, sp ) && IntAt( stack, istack, sp + 1 ) == IntAt( stack, istack, sp );
+					else
+						eq = Eq( a, b );
+					if( eq )
+						pc += 2;
+					else
+						pc = code[pc + 1];
+				}
+
+				case Program.LDCEQSEL -> {
+					if( EqConstant( constants[code[pc + 1]], stack, istack, --sp ) )
+						pc += 3;
+					else
+						pc = code[pc + 2];
+				}
+
+				default ->
+					throw new IllegalStateException( "unknown SECD opcode: " + op );
+			}
+		}
+
+		if( budget != null )
+			budget.countdown = countdown;    // for the compiled code this returns to
+		SExp result = Box( stack, istack, sp - 1 );
+		Arrays.fill( stack, 0, sp, null );
+		return result;
+	}
+
+	public void SetProfiler( Profiler p ) {
+		profiler = p;
+	}
+
+	public Profiler GetProfiler() {
+		return profiler;
+	}
+
+	// limits for each call of exec, null for none
+	public void SetLimits( Limits l ) {
+		limits = l;
+	}
+
+	public Limits GetLimits() {
+		return limits;
+	}
+
+	// hash cons the lists made by CONS in t, null for plain cells.
+	// The arguments to exec and the lists LDC loads are hash consed too.
+	public void SetConsTable( ConsTable t ) {
+		conses = t;
+	}
+
+	public ConsTable GetConsTable() {
+		return conses;
+	}
+
+	// memoize the functions selected in m, null for none.
+	// The Jit doesn't compile a Program with functions selected.
+	public void SetMemoCache( MemoCache m ) {
+		memo = m;
+	}
+
+	public MemoCache GetMemoCache() {
+		return memo;
+	}
+
+	// run the code of PAR on pool, null to run it when it is forced
+	public void SetForkJoinPool( ForkJoinPool pool ) {
+		par = pool;
+	}
+
+	public ForkJoinPool GetForkJoinPool() {
+		return par;
+	}
+
+	// calls before the Jit compiles a function, 0 turns it off.
+	// The default is the lispkit.jit property, or JIT_THRESHOLD.
+	public void SetJitThreshold( int threshold ) {
+		jitThreshold = threshold;
+		jit = null;
+	}
+
+	public int GetJitThreshold() {
+		return jitThreshold;
+	}
+
+	// the budget's countdown has run out before the op about to run.
+	// returns the countdown to the next check, with the op counted.
+	private int CheckLimits( Limits.Budget budget, SExp[] stack, int sp ) {
+		budget.countdown = 0;
+		try {
+			budget.Check();
+		}
+		catch( LimitExceededException e ) {
+			Arrays.fill( stack, 0, sp, null );
+			Arrays.fill( dumpEnv, 0, dp, null );
+			Arrays.fill( dumpKey, 0, dp, null );
+			throw e;
+		}
+		return budget.countdown - 1;
+	}
+
+	// tell the profiler about op, before it runs
+	private static void Profile( Profiler prof, Program p, int op, SExp[] stack, int sp ) {
+		prof.Step( op );
+		switch( op ) {
+			case Program.AP, Program.RAP ->
+				prof.Enter( p, ((Closure) stack[sp - 1]).GetPc() );
+			case Program.TAP ->
+				prof.Tail( p, ((Closure) stack[sp - 1]).GetPc() );
+			case Program.AP0 -> {
+				if( stack[sp - 1] instanceof Recipe r && ! r.IsDone() )
+					prof.Enter( p, r.GetPc() );
+			}
+			case Program.RTN, Program.UPD ->
+				prof.Exit();
+			case Program.STOP ->
+				prof.Stop();
+			default -> { }
+		}
+	}
+
+	static Cons MakeCons( ConsTable t, SExp car, SExp cdr ) {
+		return t == null ? new Cons( car, cdr ) : t.Make( car, cdr );
+	}
+
+	// the value in stack slot i as an SExp
+	private static SExp Box( SExp[] stack, int[] istack, int i ) {
+		SExp x = stack[i];
+		return x != null ? x : NumberAtom.ValueOf( istack[i] );
+	}
+
+	// the number in stack slot i
+	private static int IntAt( SExp[] stack, int[] istack, int i ) {
+		SExp x = stack[i];
+		return x == null ? istack[i] : ((NumberAtom) x).GetInt();
+	}
+
+	private static boolean IsInt( SExp[] stack, int i ) {
+		SExp x = stack[i];
+		return x == null || x.isNumber();
+	}
+
+	// save a frame on the dump, the stack height is the current sp
+	private void PushDump( int sp, Frame frame, int retPc, MemoCache.Key key ) {
+		if( dp == dumpPc.length ) {
+			dumpSp = Arrays.copyOf( dumpSp, dp * 2 );
+			dumpEnv = Arrays.copyOf( dumpEnv, dp * 2 );
+			dumpPc = Arrays.copyOf( dumpPc, dp * 2 );
+			dumpKey = Arrays.copyOf( dumpKey, dp * 2 );
+		}
+		dumpSp[dp] = sp;
+		dumpEnv[dp] = frame;
+		dumpPc[dp] = retPc;
+		dumpKey[dp] = key;
+		dp++;
+	}
+
+	// the stack as a list, top first
+	private SExp StackList() {
+		SExp l = nil;
+		for( int i = 0; i < sp; i++ )
+			l = new Cons( Box( stack, istack, i ), l );
+		return l;
+	}
+
+	// the dump as a list of (height env pc) frames, newest first
+	private SExp DumpList() {
+		SExp l = nil;
+		for( int i = 0; i < dp; i++ ) {
+			SExp frame = new Cons( NumberAtom.ValueOf( dumpSp[i] ),
+			             new Cons( Frame.ToList( dumpEnv[i] ),
+			             new Cons( NumberAtom.ValueOf( dumpPc[i] ), nil ) ) );
+			l = new Cons( frame, l );
+		}
+		return l;
+	}
+
+	// EQ of a constant and stack slot i
+	private static boolean EqConstant( SExp k, SExp[] stack, int[] istack, int i ) {
+		SExp x = stack[i];
+		if( x == null )
+			return k.isNumber() && ((NumberAtom) k).GetInt() == istack[i];
+		return Eq( k, x );
+	}
+
+	// EQ on atoms, same as case 14 above, and on hash consed lists
+	static boolean Eq( SExp a, SExp b ) {
+		if( a == null || b == null )
+			return a == b;
+		if( a.isSymbol() )
+			return a == b;    // symbols are interned
+		if( a.isNumber() && b.isNumber() )
+			return ((NumberAtom) a).GetInt() == ((NumberAtom) b).GetInt();
+		if( a instanceof SharedCons )
+			return a == b;    // hash consed lists are equal if they are the same cell
+		return false;
+	}
+	
 	private int GetOp() {
 		Cons cx = (Cons) c;
 		NumberAtom np = (NumberAtom) cx.car();   // car(c)
@@ -40,22 +40,18 @@ public class SExp {
 		 return (_type == EMPTY);
 	 }
 	 
-	 // NIL is a SymbolAtom
-	 // NIL should be made a singleton.
+	 // NIL is a SymbolAtom singleton
 	 public boolean isNIL() {
-	 	if( _type == SYMBOL ) 
-	 		return ((SymbolAtom) this).GetSymbol().equals( "NIL");
-	 	else
-	 		return false;	
+	 	return this == SymbolAtom.NIL;
 	 }
 
 	 // added car and cdr functions, so that calling them on a non-cons, returs NIL 
 	 public SExp car() {
-		return new SymbolAtom();
+		return SymbolAtom.NIL;
 	 }
 
 	  public SExp cdr() {
-		return new SymbolAtom();
+		return SymbolAtom.NIL;
 	 }
 }
 	
\ No newline at end of file
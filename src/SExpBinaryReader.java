@@ -0,0 +1,112 @@
+/*
+ * SExpBinaryReader.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * A class for reading S expressions written by SExpBinaryWriter.
+ * See SExpBinaryWriter for the format.
+ *
+ * The reader works on a ByteBuffer, so a file can be memory mapped and read
+ * without copying it first.
+ */
+package LispKit;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+public class SExpBinaryReader {
+	private final ByteBuffer in;
+	private final List<SymbolAtom> symbols = new ArrayList<>();
+	private final List<Cons> conses = new ArrayList<>();
+
+	private SExpBinaryReader( ByteBuffer in ) {
+		this.in = in;
+	}
+
+	public static SExp Read( ByteBuffer in ) throws IOException {
+		try {
+			for( byte m : SExpBinaryWriter.MAGIC ) {
+				if( in.get() != m )
+					throw new IOException( "not a binary S expression" );
+			}
+			return new SExpBinaryReader( in ).Get();
+		}
+		catch( BufferUnderflowException | IndexOutOfBoundsException e ) {
+			throw new IOException( "truncated binary S expression", e );
+		}
+	}
+
+	public static SExp Read( byte[] bytes ) throws IOException {
+		return Read( ByteBuffer.wrap( bytes ) );
+	}
+
+	// map the file and read it
+	public static SExp ReadFile( Path p ) throws IOException {
+		try (FileChannel ch = FileChannel.open( p, StandardOpenOption.READ )) {
+			return Read( ch.map( FileChannel.MapMode.READ_ONLY, 0, ch.size() ) );
+		}
+	}
+
+	private SExp Get() throws IOException {
+		int tag = in.get();
+		switch( tag ) {
+			case SExpBinaryWriter.SYMDEF -> {
+				byte[] name = new byte[GetVarint()];
+				in.get( name );
+				SymbolAtom a = SymbolAtom.Intern( new String( name, StandardCharsets.UTF_8 ) );
+				symbols.add( a );
+				return a;
+			}
+
+			case SExpBinaryWriter.SYM -> {
+				return symbols.get( GetVarint() );
+			}
+
+			case SExpBinaryWriter.NUM -> {
+				int z = GetVarint();
+				return NumberAtom.ValueOf( (z >>> 1) ^ -(z & 1) );
+			}
+
+			case SExpBinaryWriter.LIST -> {
+				// make the cells first, the cars may refer to them
+				int n = GetVarint();
+				int first = conses.size();
+				for( int i = 0; i < n; i++ ) {
+					Cons cell = new Cons( null, null );
+					if( i > 0 )
+						conses.get( first + i - 1 ).SetCdr( cell );
+					conses.add( cell );
+				}
+				for( int i = 0; i < n; i++ )
+					conses.get( first + i ).SetCar( Get() );
+				conses.get( first + n - 1 ).SetCdr( Get() );
+				return conses.get( first );
+			}
+
+			case SExpBinaryWriter.REF -> {
+				return conses.get( GetVarint() );
+			}
+
+			default ->
+				throw new IOException( "bad tag in binary S expression: " + tag );
+		}
+	}
+
+	private int GetVarint() {
+		int n = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.get();
+			n |= (b & 0x7f) << shift;
+			shift += 7;
+		} while( (b & 0x80) != 0 );
+		return n;
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * SExpBinaryWriter.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * A class for writing S expressions in a compact binary form.
+ * SExpBinaryReader reads them back.
+ *
+ * The file starts with the bytes "LKB1". After that there is one expression:
+ *
+ *   SYMDEF len bytes   a symbol seen for the first time, it gets the next symbol number
+ *   SYM k              symbol number k
+ *   NUM n              a number, zig-zag encoded
+ *   LIST n ... tail    n new cons cells linked by their cdrs, then the n cars, then
+ *                      the cdr of the last cell
+ *   REF k              cons cell number k, written earlier
+ *
+ * Lengths, numbers, and indexes are varints, 7 bits a byte with the high bit set
+ * on all but the last byte. Cons cells are numbered in the order they are written,
+ * so shared structure is only written once. Cycles, like the environments
+ * made by RAP, are written as REFs too.
+ *
+ * Usage: java LispKit.SExpBinaryWriter in.secd out.secdb
+ */
+package LispKit;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class SExpBinaryWriter {
+	static final byte[] MAGIC = { 'L', 'K', 'B', '1' };
+
+	// tags
+	static final int SYMDEF = 1;
+	static final int SYM = 2;
+	static final int NUM = 3;
+	static final int LIST = 4;
+	static final int REF = 5;
+
+	private final OutputStream out;
+	private final Map<SExp, Integer> symbols = new IdentityHashMap<>();
+	private final Map<SExp, Integer> conses = new IdentityHashMap<>();
+
+	private SExpBinaryWriter( OutputStream out ) {
+		this.out = out;
+	}
+
+	public static void Write( SExp s, OutputStream out ) throws IOException {
+		BufferedOutputStream bout = new BufferedOutputStream( out, 1 << 16 );
+		bout.write( MAGIC );
+		new SExpBinaryWriter( bout ).Put( s );
+		bout.flush();
+	}
+
+	public static byte[] ToBytes( SExp s ) throws IOException {
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		Write( s, b );
+		return b.toByteArray();
+	}
+
+	private void Put( SExp s ) throws IOException {
+		if( s.isNumber() ) {
+			int n = ((NumberAtom) s).GetInt();
+			out.write( NUM );
+			PutVarint( (n << 1) ^ (n >> 31) );
+		}
+		else if( s.isSymbol() ) {
+			Integer k = symbols.get( s );
+			if( k != null ) {
+				out.write( SYM );
+				PutVarint( k );
+			}
+			else {
+				symbols.put( s, symbols.size() );
+				byte[] name = ((SymbolAtom) s).GetSymbol().getBytes( StandardCharsets.UTF_8 );
+				out.write( SYMDEF );
+				PutVarint( name.length );
+				out.write( name );
+			}
+		}
+		else if( s.isCons() ) {
+			Integer k = conses.get( s );
+			if( k != null ) {
+				out.write( REF );
+				PutVarint( k );
+				return;
+			}
+
+			// the new cells along the cdrs
+			List<SExp> cells = new ArrayList<>();
+			SExp x = s;
+			while( x.isCons() && ! conses.containsKey( x ) ) {
+				conses.put( x, conses.size() );
+				cells.add( x );
+				x = x.cdr();
+			}
+
+			out.write( LIST );
+			PutVarint( cells.size() );
+			for( SExp cell : cells )
+				Put( cell.car() );
+			Put( x );
+		}
+		else
+			throw new IOException( "can't write an empty S expression" );
+	}
+
+	private void PutVarint( int n ) throws IOException {
+		while( (n & ~0x7f) != 0 ) {
+			out.write( (n & 0x7f) | 0x80 );
+			n >>>= 7;
+		}
+		out.write( n );
+	}
+
+	public static void main( String[] args ) throws IOException {
+		if( args.length != 2 ) {
+			System.err.println( "usage: SExpBinaryWriter in.secd out.secdb" );
+			System.exit( 1 );
+		}
+
+		SExp s;
+		try (FileInputStream f = new FileInputStream( args[0] )) {
+			s = new SExpReader( f ).GetExp();
+		}
+		try (FileOutputStream f = new FileOutputStream( args[1] )) {
+			Write( s, f );
+		}
+	}
+}
@@ -8,119 +8,342 @@
  * A class for reading S expressions
  * Based on the method in Peter Henerson's book
  * This could be made simpler, but I decided to mimic Henderson's method.
- * 
- * The various reader constructors read an s expression into a string buffer.
+ *
+ * Files and channels are read in chunks as the expression is parsed, so a file
+ * doesn't have to be read into memory first. A string is read from a buffer,
+ * and the terminal a line at a time. All readers of the terminal share one
+ * BufferedReader, so input it has read ahead isn't lost when another reader
+ * takes over. On the terminal an empty line ends the input, unless the reader
+ * is for a Repl, where only the end of the input does.
+ *
+ * Lists are parsed with a stack of the lists that are open, not by recursion,
+ * so long or deeply nested lists don't overflow the Java stack.
+ * Expressions() returns the top level expressions one after another. For a
+ * Repl, the token after a top level expression isn't read until the next one
+ * is asked for, so it can answer before the next line is typed.
+ *
+ * After KeepPositions is called, the reader records the line and column of
+ * each list element, keyed by the cons cell holding it, for error messages.
  */
 package LispKit;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.*;
 
-public class SExpReader extends Object {	
+public class SExpReader extends Object {
 	// token types
 	private static final int EOF =-1;
 	private static final int NUMERIC = 1;
 	private static final int ALPHA = 2;
 	private static final int DELIMITER = 3;
-	
-	private final StringBuffer buffer = new StringBuffer();
+
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private final StringBuilder buffer = new StringBuilder();
 	private char currentChar = ' ';
 	private int inBufPtr = 0;
 	private int inBufEnd = -1;
-	private final StringBuffer token = new StringBuffer();
+	private final StringBuilder token = new StringBuilder();
 	private int tokenType;
 
+	// where currentChar and the current token are
+	private int line = 1;
+	private int column = 0;
+	private int tokenLine;
+	private int tokenColumn;
+	private Map<SExp, Position> positions = null;
+
+	// bytes from a file, channel or mapped buffer. null when reading a string or the terminal.
+	private ByteBuffer chunk = null;
+	private ReadableByteChannel channel = null;
+
+	// the lines of the terminal, or of a Repl's input
+	private static BufferedReader terminal = null;
+	private BufferedReader lines = null;
+	private int linesRead = 0;
+	private boolean emptyLineEnds = true;
+
+	// a top level expression was returned, and the token after it hasn't been read
+	private boolean scanPending = false;
+
+	// a list was closed by the end of the input, not by a )
+	private boolean truncated = false;
+
 	// GetChar gets the first character.
 	// Scan completes reading a single token and gets its type.
 
 	public SExpReader() throws IOException {
+		lines = Terminal();
 		GetChar();
 		Scan();
 	}
-	
+
+	// read lines from in, with a prompt for each one. Empty lines are skipped.
+	public SExpReader( BufferedReader in ) throws IOException {
+		lines = in;
+		emptyLineEnds = false;
+		GetChar();
+		Scan();
+	}
+
+	private static synchronized BufferedReader Terminal() {
+		if( terminal == null )
+			terminal = new BufferedReader( new InputStreamReader( System.in ) );
+		return terminal;
+	}
+
 	public SExpReader( String s ) throws IOException {
-		buffer.insert( 0, s );
+		buffer.append( s );
 		buffer.append( (char) EOF );
 		inBufEnd = s.length();
-		inBufPtr = 0;	
+		inBufPtr = 0;
 
 		GetChar();
 		Scan();
 	}
-	
+
+	// the stream has to stay open while expressions are read
 	public SExpReader( FileInputStream f  ) throws IOException {
-		int inByte;
-		while( (inByte = f.read() ) != -1 ) {
-			buffer.append( (char) inByte );
-		}
-		
-		buffer.append( (char) EOF );
-		inBufEnd = buffer.length() - 1;
-		inBufPtr = 0;	
+		this( f.getChannel() );
+	}
+
+	public SExpReader( ReadableByteChannel ch ) throws IOException {
+		channel = ch;
+		chunk = ByteBuffer.allocate( CHUNK_SIZE );
+		chunk.flip();
 
 		GetChar();
 		Scan();
 	}
-	
+
+	// e.g. a memory mapped file
+	public SExpReader( ByteBuffer b ) throws IOException {
+		chunk = b;
+
+		GetChar();
+		Scan();
+	}
+
+	// a line and column in the input
+	public static final class Position {
+		public final int line;
+		public final int column;
+
+		Position( int line, int column ) {
+			this.line = line;
+			this.column = column;
+		}
+
+		@Override
+		public String toString() {
+			return "line " + line + ", column " + column;
+		}
+	}
+
+	// record where each list element is, from now on
+	public void KeepPositions() {
+		if( positions == null )
+			positions = new IdentityHashMap<>();
+	}
+
+	// the position of the car of each cons cell read, or null
+	public Map<SExp, Position> GetPositions() {
+		return positions;
+	}
+
+	// a list that has been opened but not closed yet
+	private static class OpenList {
+		Cons head = null;
+		Cons tail = null;
+		int state = ELEMENTS;
+		Position pos;
+	}
+	private static final int ELEMENTS = 0;   // reading elements
+	private static final int DOT = 1;        // a . was read
+	private static final int DOTTED = 2;     // the cdr after the . has been read
+
+	// true if the input ended inside a list, which the reader closed as Henderson's does
+	public boolean Truncated() {
+		return truncated;
+	}
+
 	// return a complete S exprssion and scan ahead
 	public  SExp GetExp() throws IOException {
-		if( token.toString().equals( "(" ) ) {
-			Scan();
-			SExp e = GetExpList();
-			Scan();
-			return e;
+		Deque<OpenList> open = new ArrayDeque<>();
+		ScanPending();
+
+		while( true ) {
+			SExp e;
+			OpenList l = open.peek();
+			Position pos = positions == null ? null : new Position( tokenLine, tokenColumn );
+
+			if( IsDelimiter( '(' ) ) {
+				Scan();
+				OpenList l2 = new OpenList();
+				l2.pos = pos;
+				open.push( l2 );
+				continue;
+			}
+			else if( l != null && (IsDelimiter( ')' ) || l.state == DOTTED) ) {
+				// end of the list, NIL is already at the end unless it was dotted.
+				// after a dotted pair the next token is skipped, as in Henderson's reader
+				open.pop();
+				if( tokenType == EOF )
+					truncated = true;
+				ScanNext( open );
+				e = l.head == null ? SymbolAtom.NIL : l.head;
+				pos = l.pos;
+			}
+			else if( l != null && l.head != null && l.state == ELEMENTS && IsDelimiter( '.' ) ) {
+				// dotted pair
+				Scan();
+				l.state = DOT;
+				continue;
+			}
+			else if( tokenType == NUMERIC && (token.length() > 1 || token.charAt( 0 ) != '-') ) {
+				int n;
+				try {
+					n = Integer.parseInt( token, 0, token.length(), 10 );
+				}
+				catch( NumberFormatException x ) {
+					String message = "number out of range " + token + " at line " + tokenLine + ", column " + tokenColumn;
+					SkipExp( open );
+					throw new NumberFormatException( message );
+				}
+				e = NumberAtom.ValueOf( n );
+				ScanNext( open );
+			}
+			else {
+				e = SymbolAtom.Intern( token.toString() );
+				ScanNext( open );
+			}
+
+			// add e to the innermost open list
+			l = open.peek();
+			if( l == null )
+				return e;
+			else if( l.state == DOT ) {
+				l.tail.SetCdr( e );
+				l.state = DOTTED;
+			}
+			else {
+				Cons cell = new Cons( e, SymbolAtom.NIL );
+				if( positions != null )
+					positions.put( cell, pos );
+				if( l.head == null )
+					l.head = cell;
+				else
+					l.tail.SetCdr( cell );
+				l.tail = cell;
+			}
 		}
-		else if( tokenType == NUMERIC ) {
-			int n = Integer.parseInt( token.toString() );
-			SExp e = new NumberAtom( n );
+	}
+
+	// the top level expressions, until the end of the input
+	public Iterator<SExp> Expressions() {
+		return new Iterator<>() {
+			@Override
+			public boolean hasNext() {
+				try {
+					ScanPending();
+				}
+				catch( IOException e ) {
+					throw new UncheckedIOException( e );
+				}
+				return tokenType != EOF;
+			}
+
+			@Override
+			public SExp next() {
+				if( tokenType == EOF )
+					throw new NoSuchElementException();
+				try {
+					return GetExp();
+				}
+				catch( IOException e ) {
+					throw new UncheckedIOException( e );
+				}
+			}
+		};
+	}
+
+	// skip the rest of the top level expression the lists in open are part of,
+	// so the next GetExp reads the one after it
+	private void SkipExp( Deque<OpenList> open ) throws IOException {
+		int depth = open.size();
+		open.clear();
+		while( depth > 0 && tokenType != EOF ) {
 			Scan();
-			return e;
+			if( IsDelimiter( '(' ) )
+				depth++;
+			else if( IsDelimiter( ')' ) )
+				depth--;
 		}
-		else {
-			SExp e = new SymbolAtom( token.toString() );
+		if( tokenType != EOF )
+			ScanNext( open );
+	}
+
+	// scan past the token just used, unless it ended a top level expression
+	// read by a Repl
+	private void ScanNext( Deque<OpenList> open ) throws IOException {
+		if( open.isEmpty() && ! emptyLineEnds )
+			scanPending = true;
+		else
 			Scan();
-			return e;
-		}	
-	}
-	
-	// return a SExp list.
-	public  SExp GetExpList() throws IOException {
-		SExp p = GetExp();
-            switch (token.toString()) {
-                case "." -> {    // dotted pair
-                    Scan();
-                    SExp p2 = GetExp();
-                    SExp e = new Cons( p, p2 );
-                    return e;
-                }
-                case ")" -> {   // attach NIL at the end of the list
-                    SExp e = new Cons( p, new SymbolAtom() );
-                    return e;
-                }
-                default -> {
-                    SExp p2 = GetExpList();
-                    SExp e = new Cons( p, p2);
-                    return e;
-                }
-            }
-	}
-	
+	}
+
+	private void ScanPending() throws IOException {
+		if( scanPending ) {
+			scanPending = false;
+			Scan();
+		}
+	}
+
+	private boolean IsDelimiter( char ch ) {
+		return tokenType != NUMERIC && token.length() == 1 && token.charAt( 0 ) == ch;
+	}
+
 	// get the current character from the buffer and move the buffer pointer.
 	private  void GetChar() throws IOException {
 		final String promptStr = "> ";
 
+		if( currentChar == '\n' ) {
+			line++;
+			column = 1;
+		}
+		else
+			column++;
+
+		if( chunk != null ) {
+			if( ! chunk.hasRemaining() && ! FillChunk() )
+				currentChar = (char) EOF;
+			else
+				currentChar = (char) (chunk.get() & 0xff);
+			return;
+		}
+
 		// this part is mainly for reading from the terminal.
-		if( inBufPtr > inBufEnd ) {	
-			BufferedReader in = new BufferedReader( new InputStreamReader( System.in ));
-			System.out.print( promptStr );
+		if( inBufPtr > inBufEnd && lines != null ) {
 			String text;
+			do {
+				System.out.print( promptStr );
+				System.out.flush();
+				try {
+					text = lines.readLine();
+					if( text != null )
+						linesRead++;
+				}
+				catch( IOException e  ) {
+					currentChar = (char) EOF;
+					text = "";
+				}
+			} while( ! emptyLineEnds && text != null && text.isBlank() );
 
-			try {
-				text = in.readLine();
-			} 
-			catch( IOException e  ) {
-				currentChar = (char) EOF;
-				text = "";
-			}
+			// readLine drops the \n that would count the line
+			line = linesRead;
+			column = 1;
 
 			buffer.setLength( 0 );
 			if( text == null || text.length() == 0 ) {
@@ -132,23 +355,39 @@ public class SExpReader extends Object {
 			}
 			inBufPtr = 0;
 		}
-		
-		if( inBufEnd == -1 )
-			currentChar = (char) EOF;
-		else	
+
+		if( inBufEnd == -1 || inBufPtr > inBufEnd )
+			currentChar = (char) EOF;    // past the end of a string
+		else
 			currentChar = buffer.charAt( inBufPtr );
 		inBufPtr++;
 	}
-	
+
+	// read the next chunk from the channel. false at the end of the input.
+	private boolean FillChunk() throws IOException {
+		if( channel == null )
+			return false;
+
+		chunk.clear();
+		int n;
+		do {
+			n = channel.read( chunk );
+		} while( n == 0 );
+		chunk.flip();
+		return n > 0;
+	}
+
 	// get the current token and its type
 	private  void GetToken() throws IOException {
 		token.setLength( 0 );
 		tokenType = ALPHA;
-		
+
 		while( currentChar != (char) EOF && Character.isWhitespace( currentChar ) ) {
 			GetChar();
 		}
-		
+		tokenLine = line;
+		tokenColumn = column;
+
 		if( currentChar == (char) EOF )
 			tokenType = EOF;
 		else if( Character.isDigit( currentChar ) || currentChar == '-' ) {
@@ -175,12 +414,12 @@ public class SExpReader extends Object {
 			GetChar();
 		}
 	}
-	
+
 	// get the next token
 	// add a ) if the buffer runs out.
 	private   void Scan() throws IOException {
 		GetToken();
 		if( tokenType == EOF )
 			token.replace(0, token.length(), ")");
-	}	
+	}
 }
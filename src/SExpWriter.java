@@ -6,68 +6,211 @@
  * copyright: 2026-01-27
  *
  * A class for outputting S expressions
+ *
+ * Output goes through a large char buffer to a Writer, an OutputStream or a
+ * channel. The default is stdout, broken into lines of about 60 characters, and
+ * flushed at the end of each line, as before. For other outputs the buffer is
+ * written when it is full or when Flush is called.
+ * Bytes are written as Latin-1, the way SExpReader reads them, so a symbol read
+ * from a file or a channel is written back the same. Stdout uses the platform
+ * charset, like the terminal reader.
+ *
+ * Lists are written with a stack rather than by recursion, so deep structures
+ * don't overflow the Java stack. Circular structure, like the environment of a
+ * closure made by RAP, is written as <cycle> where it loops back.
+ * A Recipe is written as its value once it has been forced, or <delayed>.
  */
 
 package LispKit;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 
 public class SExpWriter extends Object {
-	
+
 	private static final int BUF_LEN = 60;
-	
-	private final StringBuffer buffer = new StringBuffer();
-	private int outBufPtr = -1;
-	
+	private static final int OUT_BUF_SIZE = 1 << 16;
+	private static final String CYCLE = "<cycle>";
+	private static final String DELAYED = "<delayed>";
+
+	private final Writer out;
+	private final boolean flushLines;
+	private final int lineLength;   // 0 for no line breaks
+
+	private final char[] buffer = new char[OUT_BUF_SIZE];
+	private int bufLen = 0;
+	private int outBufPtr = -1;     // characters on this line - 1
+	private final char[] digits = new char[12];
+
+	// the lists being written, and the ones that are open, to find cycles
+	private final ArrayDeque<ListState> open = new ArrayDeque<>();
+	private final Set<SExp> openLists = Collections.newSetFromMap( new IdentityHashMap<>() );
+
+	// where we are in a list. The tortoise is for finding a cycle in the cdrs.
+	private static class ListState {
+		SExp head;
+		SExp rest;
+		SExp tortoise;
+		int steps = 0;
+		int limit = 2;
+		boolean cycle = false;
+	}
+
+	public SExpWriter() {
+		this( new OutputStreamWriter( System.out ), BUF_LEN, true );
+	}
+
+	public SExpWriter( Writer w ) {
+		this( w, BUF_LEN, false );
+	}
+
+	public SExpWriter( OutputStream os ) {
+		this( new OutputStreamWriter( os, StandardCharsets.ISO_8859_1 ), BUF_LEN, false );
+	}
+
+	public SExpWriter( WritableByteChannel ch ) {
+		this( Channels.newWriter( ch, StandardCharsets.ISO_8859_1 ), BUF_LEN, false );
+	}
+
+	// lineLength 0 writes each expression on one line.
+	// flushLines writes the buffer out at the end of each line.
+	public SExpWriter( Writer w, int lineLength, boolean flushLines ) {
+		out = w;
+		this.lineLength = lineLength;
+		this.flushLines = flushLines;
+	}
+
 	// write an S expression
 	public  void PutSExp( SExp s ) throws IOException {
-		if( s.isNumber() ) {
-			NumberAtom s2 = (NumberAtom) s;
-			int n = s2.GetInt();
-			PutToken( n + "" );
-		}
-		else if( s.isSymbol() ) {
-			SymbolAtom s2 = (SymbolAtom) s;
-			PutToken( s2.GetSymbol() );
-		}
-		else if( s.isNIL() || s.isEmpty() ) {
-			PutChar( ' ');
-		} 
-		else {
-			PutChar( '(' );
-			PutChar( ' ' );
-			SExp s2 = s;
-			while( (! s2.isNIL() ) && s2.isCons() ) {
-				Cons s3 = (Cons) s2;
-				PutSExp( s3.car() );
-				s2 = s3.cdr();
+		SExp x = s;
+		while( true ) {
+			while( x instanceof Recipe r && r.IsDone() )
+				x = r.GetValue();
+
+			if( x instanceof Recipe ) {
+				PutToken( DELAYED );    // not forced yet
+			}
+			else if( x.isNumber() ) {
+				PutNumber( ((NumberAtom) x).GetInt() );
+			}
+			else if( x.isSymbol() ) {
+				SymbolAtom s2 = (SymbolAtom) x;
+				PutToken( s2.GetSymbol() );
+			}
+			else if( x.isNIL() || x.isEmpty() ) {
+				PutChar( ' ');
 			}
-			if( ! s2.isNIL() ) {
-				PutToken( "." );
-				PutSExp( s2 );
+			else if( openLists.contains( x ) ) {
+				PutToken( CYCLE );
 			}
-			PutToken( ")" );
+			else {
+				PutChar( '(' );
+				PutChar( ' ' );
+				ListState l = new ListState();
+				l.head = x;
+				l.rest = x;
+				l.tortoise = x;
+				open.push( l );
+				openLists.add( x );
+			}
+
+			// the next element to write, closing lists that are done
+			x = null;
+			while( x == null && ! open.isEmpty() ) {
+				ListState l = open.peek();
+				SExp r = l.rest;
+				while( r instanceof Recipe d && d.IsDone() )
+					r = d.GetValue();
+				if( l.cycle ) {
+					PutToken( "." );
+					PutToken( CYCLE );
+					CloseList();
+				}
+				else if( r.isCons() ) {
+					x = r.car();
+					l.rest = r.cdr();
+					if( l.rest == l.tortoise )
+						l.cycle = true;
+					else if( ++l.steps == l.limit ) {
+						l.tortoise = l.rest;
+						l.steps = 0;
+						l.limit *= 2;
+					}
+				}
+				else if( ! r.isNIL() ) {
+					PutToken( "." );
+					x = r;
+					l.rest = SymbolAtom.NIL;   // close after writing x
+				}
+				else
+					CloseList();
+			}
+
+			if( x == null )
+				return;
 		}
 	}
 
+	private void CloseList() throws IOException {
+		openLists.remove( open.pop().head );
+		PutToken( ")" );
+	}
+
 	public  void PutToken( String str ) throws IOException {
 		for( int i = 0; i < str.length(); i++) {
 			PutChar( str.charAt( i ) );
 		}
 		PutChar( ' ');
 	}
-	
+
+	// write a number without making a String
+	private void PutNumber( int n ) throws IOException {
+		long v = n;
+		boolean neg = v < 0;
+		if( neg )
+			v = -v;
+		int i = digits.length;
+		do {
+			digits[--i] = (char) ('0' + v % 10);
+			v /= 10;
+		} while( v != 0 );
+		if( neg )
+			PutChar( '-' );
+		while( i < digits.length )
+			PutChar( digits[i++] );
+		PutChar( ' ' );
+	}
+
 	private  void PutChar( char ch ) throws IOException {
-		if( outBufPtr == BUF_LEN ) 
+		if( outBufPtr == lineLength && lineLength > 0 )
 			ForceLineOut();
 		outBufPtr++;
-		buffer.append( ch );	
+		if( bufLen == buffer.length )
+			WriteBuffer();
+		buffer[bufLen++] = ch;
 	}
-	
-	// write the buffer to stdout
+
+	// end the line
 	public  void ForceLineOut() throws IOException {
-		System.out.println( buffer );
-		buffer.setLength( 0 );
+		if( bufLen == buffer.length )
+			WriteBuffer();
+		buffer[bufLen++] = '\n';
 		outBufPtr = -1;
+		if( flushLines )
+			Flush();
+	}
+
+	// write out whatever is buffered
+	public void Flush() throws IOException {
+		WriteBuffer();
+		out.flush();
+	}
+
+	private void WriteBuffer() throws IOException {
+		out.write( buffer, 0, bufLen );
+		bufLen = 0;
 	}
 }
@@ -0,0 +1,321 @@
+/*
+ * Server.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * Serves compile and invoke requests on a local socket, so the JVM, the
+ * compiler, and compiled functions stay loaded between requests.
+ *
+ * The server listens on a TCP port on the loopback address or on a Unix domain
+ * socket. Each message, both ways, is a 4 byte big endian length followed by
+ * that many bytes of Latin-1 text holding one S expression. A connection can send
+ * any number of requests, each one is answered before the next is read.
+ *
+ *   ( COMPILE name fn )   compile fn and keep it as name     ( OK name )
+ *   ( INVOKE name args )  apply the function kept as name    ( OK result )
+ *   ( EVAL fn args )      compile fn and apply it            ( OK result )
+ *   ( STATS )             the counters below                 ( OK ( REQUESTS n ) ... )
+ *
+ * A request that fails is answered with ( ERROR words of the message ), and
+ * the connection stays open. Functions kept by COMPILE are shared by all
+ * connections. At most MAX_FUNCTIONS are kept, unless SetMaxFunctions changes
+ * it, and past that the one used least recently is dropped, so clients can't
+ * make the server grow without end. A symbol is only kept while something uses
+ * it, see SymbolAtom. The compiler is held by the Engine.
+ *
+ * Each connection is handled by a thread from a fixed pool, and holds it until
+ * the connection is closed. A connection that comes in while all of them are
+ * busy waits in a queue, so with clients that stay connected there should be
+ * at least as many threads as clients. A connection that sends nothing for the
+ * idle timeout, IDLE_MILLIS unless SetIdleTimeout changes it, is closed, so idle
+ * clients can't keep the others waiting for ever. STATS gives the
+ * requests and errors so far, the connections being handled and waiting, and
+ * the latency of a request from when it is read to when the answer is written.
+ */
+package LispKit;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class Server implements AutoCloseable {
+	// the longest message read, so a bad length can't use up the heap
+	public static final int MAX_MESSAGE = 64 * 1024 * 1024;
+
+	// functions kept by COMPILE
+	public static final int MAX_FUNCTIONS = 1000;
+
+	// how long a connection can wait between requests before it is closed
+	public static final long IDLE_MILLIS = 60000;
+
+	private static final SymbolAtom COMPILE = SymbolAtom.Intern( "COMPILE" );
+	private static final SymbolAtom INVOKE = SymbolAtom.Intern( "INVOKE" );
+	private static final SymbolAtom EVAL = SymbolAtom.Intern( "EVAL" );
+	private static final SymbolAtom STATS = SymbolAtom.Intern( "STATS" );
+	private static final SymbolAtom OK = SymbolAtom.Intern( "OK" );
+
+	private final Engine engine;
+	private final Limits limits;
+	private final ServerSocketChannel channel;
+	private final Path socketFile;    // null for TCP
+	private final ThreadPoolExecutor sessions;
+	private final ScheduledExecutorService idleTimer;
+	private volatile long idleMillis = IDLE_MILLIS;
+	private final LinkedHashMap<SExp, CompiledFunction> functions;
+	private volatile int maxFunctions = MAX_FUNCTIONS;
+
+	// latency histogram, bucket i holds requests taking [2^i, 2^(i+1)) ns
+	private final AtomicLongArray buckets = new AtomicLongArray( 64 );
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator( Long::max, 0 );
+	private final long startNanos = System.nanoTime();
+
+	/**
+	 * Listen on address, an InetSocketAddress or a UnixDomainSocketAddress.
+	 * Connections are handled on threads threads. Each invocation is bound by
+	 * limits, null for none.
+	 */
+	public Server( Engine engine, SocketAddress address, int threads, Limits limits ) throws IOException {
+		this.engine = engine;
+		this.limits = limits;
+		if( address instanceof UnixDomainSocketAddress u ) {
+			channel = ServerSocketChannel.open( StandardProtocolFamily.UNIX );
+			socketFile = u.getPath();
+		}
+		else {
+			channel = ServerSocketChannel.open();
+			socketFile = null;
+		}
+		channel.bind( address );
+		sessions = new ThreadPoolExecutor( threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>() );
+		functions = new LinkedHashMap<>( 16, 0.75f, true ) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry( Map.Entry<SExp, CompiledFunction> eldest ) {
+				return size() > maxFunctions;
+			}
+		};
+		idleTimer = Executors.newSingleThreadScheduledExecutor( r -> {
+			Thread t = new Thread( r, "lispkit-idle" );
+			t.setDaemon( true );
+			return t;
+		} );
+	}
+
+	// keep at most n functions compiled by COMPILE
+	public void SetMaxFunctions( int n ) {
+		if( n < 1 )
+			throw new IllegalArgumentException( "n must be at least 1" );
+		maxFunctions = n;
+	}
+
+	// close a connection that waits longer than millis for a request, 0 never does
+	public void SetIdleTimeout( long millis ) {
+		idleMillis = millis;
+	}
+
+	// a TCP port on the loopback address, 0 for any free port
+	public static SocketAddress Local( int port ) {
+		return new InetSocketAddress( InetAddress.getLoopbackAddress(), port );
+	}
+
+	public static SocketAddress Unix( String path ) {
+		return UnixDomainSocketAddress.of( path );
+	}
+
+	public SocketAddress GetAddress() throws IOException {
+		return channel.getLocalAddress();
+	}
+
+	// accept connections until the server is closed
+	public void Serve() throws IOException {
+		while( true ) {
+			SocketChannel ch;
+			try {
+				ch = channel.accept();
+			}
+			catch( ClosedChannelException e ) {
+				return;
+			}
+			try {
+				sessions.execute( () -> Session( ch ) );
+			}
+			catch( RejectedExecutionException e ) {
+				ch.close();
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+		sessions.shutdownNow();
+		idleTimer.shutdownNow();
+		if( socketFile != null )
+			Files.deleteIfExists( socketFile );
+	}
+
+	public ParallelExecutor.Stats GetStats() {
+		long[] counts = new long[buckets.length()];
+		for( int i = 0; i < counts.length; i++ )
+			counts[i] = buckets.get( i );
+		return new ParallelExecutor.Stats( requests.sum(), errors.sum(), System.nanoTime() - startNanos,
+		                                   totalNanos.sum(), maxNanos.get(), counts );
+	}
+
+	// connections being handled
+	public int GetActive() {
+		return sessions.getActiveCount();
+	}
+
+	// connections waiting for a thread
+	public int GetQueued() {
+		return sessions.getQueue().size();
+	}
+
+	// answer the requests on one connection until it is closed
+	private void Session( SocketChannel ch ) {
+		try (ch;
+		     DataInputStream in = new DataInputStream( new BufferedInputStream( Channels.newInputStream( ch ) ) );
+		     DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Channels.newOutputStream( ch ) ) )) {
+			while( true ) {
+				// closing the channel makes the read below throw
+				long idle = idleMillis;
+				ScheduledFuture<?> timeout = idle > 0 ? idleTimer.schedule( () -> Close( ch ), idle, TimeUnit.MILLISECONDS ) : null;
+				byte[] msg;
+				try {
+					int n = in.readInt();
+					if( n < 0 || n > MAX_MESSAGE )
+						throw new IOException( "bad message length " + n );
+					msg = new byte[n];
+					in.readFully( msg );
+				}
+				catch( EOFException e ) {
+					return;
+				}
+				finally {
+					if( timeout != null )
+						timeout.cancel( false );
+				}
+
+				long t0 = System.nanoTime();
+				String answer;
+				try {
+					answer = Text( new Cons( OK, Request( new String( msg, StandardCharsets.ISO_8859_1 ) ) ) );
+				}
+				catch( LimitExceededException | IllegalArgumentException | IOException e ) {
+					errors.increment();
+					answer = Error( e.getMessage() );
+				}
+				catch( RuntimeException | StackOverflowError e ) {
+					errors.increment();
+					answer = Error( e.toString() );
+				}
+				byte[] b = answer.getBytes( StandardCharsets.ISO_8859_1 );
+				out.writeInt( b.length );
+				out.write( b );
+				out.flush();
+
+				long t = System.nanoTime() - t0;
+				requests.increment();
+				totalNanos.add( t );
+				maxNanos.accumulate( t );
+				buckets.incrementAndGet( 63 - Long.numberOfLeadingZeros( Math.max( t, 1 ) ) );
+			}
+		}
+		catch( IOException e ) {
+			// the client went away, was idle too long, or sent a bad length, drop the connection
+		}
+	}
+
+	private static void Close( SocketChannel ch ) {
+		try {
+			ch.close();
+		}
+		catch( IOException e ) {
+			// closing anyway
+		}
+	}
+
+	// the result of one request, without the OK
+	private SExp Request( String text ) throws IOException {
+		SExpReader r = new SExpReader( text );
+		r.KeepPositions();
+		SExp req = r.GetExp();
+		if( r.Truncated() )
+			throw new IllegalArgumentException( "malformed request, a list isn't closed" );
+		if( ! req.isCons() )
+			throw new IllegalArgumentException( "a request should be a list" );
+
+		SExp op = req.car();
+		if( op == STATS )
+			return Stats();
+
+		SExp a = req.cdr().car();
+		SExp b = req.cdr().cdr().car();
+		if( op == COMPILE ) {
+			if( ! a.isSymbol() )
+				throw new IllegalArgumentException( "COMPILE needs a name" );
+			CompiledFunction fn = engine.Compile( b, r.GetPositions() );
+			synchronized( functions ) {
+				functions.put( a, fn );
+			}
+			return new Cons( a, SymbolAtom.NIL );
+		}
+		if( op == INVOKE ) {
+			CompiledFunction fn;
+			synchronized( functions ) {
+				fn = functions.get( a );
+			}
+			if( fn == null )
+				throw new IllegalArgumentException( "no function " + Text( a ) );
+			return new Cons( Invoke( fn, b ), SymbolAtom.NIL );
+		}
+		if( op == EVAL )
+			return new Cons( Invoke( engine.Compile( a, r.GetPositions() ), b ), SymbolAtom.NIL );
+		throw new IllegalArgumentException( "unknown request " + Text( op ) );
+	}
+
+	private SExp Invoke( CompiledFunction fn, SExp args ) throws IOException {
+		return limits == null ? engine.Invoke( fn, args ) : engine.Invoke( fn, args, limits );
+	}
+
+	// ( REQUESTS n ) ( ERRORS n ) ..., times in microseconds
+	private SExp Stats() {
+		ParallelExecutor.Stats s = GetStats();
+		String[] names = { "REQUESTS", "ERRORS", "ACTIVE", "QUEUED", "MEAN-US", "P50-US", "P99-US", "MAX-US" };
+		long[] values = { s.calls, s.errors, GetActive(), GetQueued(), (long) (s.MeanNanos() / 1e3),
+		                  s.PercentileNanos( 0.5 ) / 1000, s.PercentileNanos( 0.99 ) / 1000, s.maxNanos / 1000 };
+		SExp l = SymbolAtom.NIL;
+		for( int i = names.length - 1; i >= 0; i-- ) {
+			SExp v = NumberAtom.ValueOf( (int) Math.min( values[i], Integer.MAX_VALUE ) );
+			l = new Cons( new Cons( SymbolAtom.Intern( names[i] ), new Cons( v, SymbolAtom.NIL ) ), l );
+		}
+		return l;
+	}
+
+	private static String Text( SExp x ) throws IOException {
+		StringWriter sw = new StringWriter();
+		SExpWriter w = new SExpWriter( sw, 0, false );
+		w.PutSExp( x );
+		w.Flush();
+		return sw.toString().trim();
+	}
+
+	// ( ERROR words ), with the message's parentheses taken out so it reads as one list
+	private static String Error( String message ) {
+		String m = message == null ? "" : message.replace( '(', '[' ).replace( ')', ']' );
+		return "( ERROR " + m + " )";
+	}
+}
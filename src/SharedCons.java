@@ -0,0 +1,37 @@
+/*
+ * SharedCons.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * A cons made by a ConsTable.
+ *
+ * There is only one SharedCons for each car and cdr, so two lists built from
+ * SharedCons cells are equal if they are the same cell. It can't be changed,
+ * since other lists may share it. The hash of its structure is kept.
+ */
+package LispKit;
+
+public class SharedCons extends Cons {
+	private final int _hash;
+
+	SharedCons( SExp aCar, SExp aCdr, int hash ) {
+		super( aCar, aCdr );
+		_hash = hash;
+	}
+
+	public int GetHash() {
+		return _hash;
+	}
+
+	@Override
+	public void SetCar( SExp aCar ) {
+		throw new UnsupportedOperationException( "a shared cons can't be changed" );
+	}
+
+	@Override
+	public void SetCdr( SExp aCdr ) {
+		throw new UnsupportedOperationException( "a shared cons can't be changed" );
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Spark.java
+ *
+ * author: Bill Thompson
+ * license: GPL 3
+ * copyright: 2026-01-27
+ *
+ * A Recipe made by LDP that is run on a ForkJoinPool while the code that made
+ * it goes on.
+ *
+ * LispKit has no side effects, so the code can run on another thread and give
+ * the same value it would when forced. AP0 of a Spark waits for it with join,
+ * and a ForkJoinPool worker runs other tasks while it waits.
+ *
+ * LDP only makes a Spark if the pool doesn't already have enough work queued,
+ * PAR_SURPLUS tasks. Otherwise it makes a plain Recipe that is run when it is
+ * forced, so a tree recursive function forks near the root of the tree and
+ * runs sequentially below that. The Loader has already turned an LDP whose code
+ * makes no calls into LDE.
+ *
+ * The code runs on a new SECD with the same ConsTable and MemoCache. It is not
+ * profiled and not bound by Limits, so LDP never forks when either is set.
+ */
+package LispKit;
+
+import java.util.concurrent.*;
+
+public class Spark extends Recipe {
+	// queued tasks above which LDP doesn't fork
+	public static final int PAR_SURPLUS = 3;
+
+	private final ForkJoinTask<SExp> _task;
+
+	private Spark( int pc, Frame frame, ForkJoinTask<SExp> task ) {
+		super( pc, frame );
+		_task = task;
+	}
+
+	// a Spark running the recipe at pc on pool, or a Recipe if the pool is busy
+	static Recipe Make( Program p, int pc, Frame frame, ForkJoinPool pool, SECD parent ) {
+		boolean inPool = ForkJoinTask.getPool() == pool;
+		int queued = inPool ? ForkJoinTask.getSurplusQueuedTaskCount() : pool.getQueuedSubmissionCount();
+		if( queued >= PAR_SURPLUS )
+			return new Recipe( pc, frame );
+
+		SECD secd = parent.Child();
+		ForkJoinTask<SExp> task = ForkJoinTask.adapt( () -> secd.RunRecipe( p, pc, frame ) );
+		if( inPool )
+			task.fork();
+		else
+			pool.execute( task );
+		return new Spark( pc, frame, task );
+	}
+
+	// wait for the value. An error in the code is thrown here.
+	SExp Join() {
+		SExp v = _task.join();
+		SetValue( v );
+		return v;
+	}
+}
@@ -6,21 +6,70 @@
  *
  * A class for holding symbols.
  *
+ * Symbols are interned. There is only one SymbolAtom for each name, so
+ * symbols can be compared with ==. NIL, T, and F are singletons.
+ *
+ * The table holds symbols weakly. A symbol nothing refers to any more is
+ * collected and its entry removed, so a long running server reading new
+ * names doesn't keep them all. Nothing can tell it from the SymbolAtom Intern
+ * makes for the name the next time.
  */
 package LispKit;
 
+import java.lang.ref.*;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class SymbolAtom extends SExp {
+	private static final ConcurrentHashMap<String, Ref> symbols = new ConcurrentHashMap<>();
+	private static final ReferenceQueue<SymbolAtom> collected = new ReferenceQueue<>();
+
+	private static final class Ref extends WeakReference<SymbolAtom> {
+		final String name;
+
+		Ref( SymbolAtom a ) {
+			super( a, collected );
+			name = a._string;
+		}
+	}
+
+	public static final SymbolAtom NIL = Intern( "NIL" );
+	public static final SymbolAtom T = Intern( "T" );
+	public static final SymbolAtom F = Intern( "F" );
+
 	private final String _string;
 	
-	public SymbolAtom( String s ) {
+	private SymbolAtom( String s ) {
 		_type = SYMBOL;
 		_string = s;
 	}
 
-	// NIL
-	public SymbolAtom() {
-		_type = SYMBOL;
-		_string = "NIL";
+	// the one SymbolAtom for s
+	public static SymbolAtom Intern( String s ) {
+		Ref r = symbols.get( s );
+		SymbolAtom a = r == null ? null : r.get();
+		if( a != null )
+			return a;
+
+		Purge();
+		SymbolAtom made = new SymbolAtom( s );
+		Ref ref = new Ref( made );
+		while( true ) {
+			r = symbols.putIfAbsent( s, ref );
+			if( r == null )
+				return made;
+			a = r.get();
+			if( a != null )
+				return a;
+			if( symbols.replace( s, r, ref ) )
+				return made;
+		}
+	}
+
+	// remove the entries of collected symbols
+	private static void Purge() {
+		Reference<? extends SymbolAtom> r;
+		while( (r = collected.poll()) != null )
+			symbols.remove( ((Ref) r).name, r );
 	}
 	
 	public String GetSymbol() {
@@ -39,7 +39,7 @@
                                     ( QUOTE ( 5 ) ) )  )
     ( IF ( EQ ( CAR E ) ( QUOTE LET ) ) 
          ( LET  ( LET  ( COMPLIS ARGS N ( CONS ( QUOTE 3 )
-                            ( CONS BODY ( CONS ( QUOTE 4 )  C ) ) ) )
+                            ( CONS BODY ( CONS ( APOP C )  C ) ) ) )
                   ( BODY COMP ( CAR ( CDR E ) ) M ( QUOTE ( 5 ) ) ) )
             ( M CONS ( VARS ( CDR ( CDR E ) ) )  N )
             ( ARGS EXPRS ( CDR ( CDR E ) ) ) )
@@ -49,7 +49,13 @@
                   ( BODY COMP ( CAR ( CDR E ) ) M ( QUOTE ( 5 ) ) ) )
             ( M CONS ( VARS ( CDR ( CDR E ) ) ) N ) 
             ( ARGS EXPRS ( CDR ( CDR E ) ) ) )
-    ( COMPLIS ( CDR E ) N ( COMP ( CAR E ) N ( CONS ( QUOTE 4 ) C ) ) ) ) ) ) ) ) ) ) ) ) ) ) ) ) ) ) ) ) )
+    ( IF ( EQ ( CAR E ) ( QUOTE DELAY ) )
+        ( CONS ( QUOTE 23 ) ( CONS ( COMP ( CAR ( CDR E ) ) N ( QUOTE ( 24 ) ) ) C ) )
+    ( IF ( EQ ( CAR E ) ( QUOTE FORCE ) )
+        ( COMP ( CAR ( CDR E ) ) N ( CONS ( QUOTE 25 ) C ) )
+    ( IF ( EQ ( CAR E ) ( QUOTE PAR ) )
+        ( CONS ( QUOTE 26 ) ( CONS ( COMP ( CAR ( CDR E ) ) N ( QUOTE ( 24 ) ) ) C ) )
+    ( COMPLIS ( CDR E ) N ( COMP ( CAR E ) N ( CONS ( APOP C ) C ) ) ) ) ) ) ) ) ) ) ) ) ) ) ) ) ) ) ) ) ) ) ) )
   ( COMPLIS LAMBDA ( E N C )
     ( IF ( EQ E ( QUOTE NIL ) ) ( CONS ( QUOTE 2 ) ( CONS ( QUOTE NIL ) C ) )
         ( COMPLIS ( CDR E ) N ( COMP ( CAR E ) N ( CONS ( QUOTE 13 ) C ) ) ) ) )
@@ -69,6 +75,8 @@
   ( EXPRS LAMBDA ( D )
     ( IF ( EQ D ( QUOTE NIL ) ) ( QUOTE NIL )
         ( CONS ( CDR ( CAR D ) ) ( EXPRS ( CDR D ) ) ) ) ) 
+  ( APOP LAMBDA ( C )
+    ( IF ( EQ ( CAR C ) ( QUOTE 5 ) ) ( QUOTE 22 ) ( QUOTE 4 ) ) )
 )
 
 